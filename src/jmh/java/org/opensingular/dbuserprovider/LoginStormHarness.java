@@ -0,0 +1,379 @@
+package org.opensingular.dbuserprovider;
+
+import de.mkammerer.argon2.Argon2Factory;
+import de.mkammerer.argon2.Argon2Factory.Argon2Types;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.keycloak.common.util.MultivaluedHashMap;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserCredentialModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.credential.PasswordCredentialModel;
+import org.keycloak.storage.federated.UserFederatedStorageProvider;
+import org.mindrot.jbcrypt.BCrypt;
+import org.opensingular.dbuserprovider.benchmark.Stubs;
+import org.opensingular.dbuserprovider.metrics.ProviderMetrics;
+import org.opensingular.dbuserprovider.model.AttributeSyncStats;
+import org.opensingular.dbuserprovider.model.QueryConfigurations;
+import org.opensingular.dbuserprovider.password.PasswordVerificationExecutor;
+import org.opensingular.dbuserprovider.persistence.DataSourceProvider;
+import org.opensingular.dbuserprovider.persistence.PoolConfiguration;
+import org.opensingular.dbuserprovider.persistence.QueryExecutor;
+import org.opensingular.dbuserprovider.persistence.QueryLogger;
+import org.opensingular.dbuserprovider.persistence.RDBMS;
+import org.opensingular.dbuserprovider.persistence.UserCountCache;
+import org.opensingular.dbuserprovider.persistence.UserLookupCache;
+import org.opensingular.dbuserprovider.persistence.UserRepository;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Login storm against an embedded H2 database in PostgreSQL mode: each worker thread repeatedly opens a provider (as a
+ * Keycloak session would), looks a random user up by username and validates the password. Reports throughput and
+ * p50/p99/p999 latency of both operations.
+ * <p>
+ * Every user gets the same password hash, computed once: hashing millions of passwords with a slow function would take
+ * longer than the run itself, and the verification cost does not depend on the user.
+ * <p>
+ * Options are {@code key=value} arguments, see {@link #DEFAULTS}. Run with
+ * {@code mvn -P benchmark test-compile exec:exec@login-storm -Dstorm.args="users=100000 hashFunction=PBKDF2-SHA256"}.
+ */
+public class LoginStormHarness {
+
+    private static final String              PASSWORD = "password";
+    private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+    static {
+        DEFAULTS.put("users", "1000000");
+        DEFAULTS.put("threads", "32");
+        DEFAULTS.put("warmupSeconds", "5");
+        DEFAULTS.put("seconds", "30");
+        DEFAULTS.put("hashFunction", "SHA-256");
+        DEFAULTS.put("maximumPoolSize", "20");
+        DEFAULTS.put("lookupCacheMaxSize", "0");
+        DEFAULTS.put("passwordVerificationThreads", "0");
+        DEFAULTS.put("combinedQuery", "true");
+    }
+
+    private final Map<String, String>                             options;
+    private final Map<String, MultivaluedHashMap<String, String>> federatedAttributes = new ConcurrentHashMap<>();
+    private final LongAdder                                       failures            = new LongAdder();
+    private final ComponentModel                                  model               = new ComponentModel();
+    private final AttributeSyncStats                              attributeSyncStats  = new AttributeSyncStats();
+    private       KeycloakSession                                 session;
+    private       RealmModel                                      realm;
+    private       DataSourceProvider                              dataSourceProvider;
+    private       QueryConfigurations                             queryConfigurations;
+    private       UserLookupCache                                 userLookupCache;
+    private       PasswordVerificationExecutor                    passwordVerificationExecutor;
+    private       UserRepository                                  repository;
+    private final SimpleMeterRegistry                             meterRegistry       = new SimpleMeterRegistry();
+    private       ProviderMetrics                                 metrics;
+
+    private LoginStormHarness(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            if (keyValue.length != 2 || !DEFAULTS.containsKey(keyValue[0])) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected one of " + DEFAULTS.keySet());
+            }
+            options.put(keyValue[0], keyValue[1]);
+        }
+        // keep the console quiet, only slow queries and errors are of interest here
+        Logger.getLogger("").setLevel(Level.WARNING);
+        Arrays.stream(Logger.getLogger("").getHandlers()).forEach(h -> h.setLevel(Level.WARNING));
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+
+        LoginStormHarness harness = new LoginStormHarness(options);
+        try (Connection keepAlive = DriverManager.getConnection(harness.url(), "sa", "")) {
+            harness.seed(keepAlive);
+            harness.start();
+            harness.run();
+        } finally {
+            harness.stop();
+        }
+    }
+
+    private int intOption(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    private String url() {
+        return "jdbc:h2:mem:loginstorm;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH";
+    }
+
+    private void seed(Connection connection) throws Exception {
+        int  users = intOption("users");
+        long start = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table users (id bigint primary key, username varchar(100) not null, email varchar(200), "
+                              + "first_name varchar(100), last_name varchar(100), hash_pwd varchar(200))");
+            // system_range names its column X, which DATABASE_TO_LOWER would otherwise look up as x
+            statement.execute("insert into users select \"X\", 'user' || \"X\", 'user' || \"X\" || '@example.com', 'First' || \"X\", 'Last' || \"X\", '"
+                              + hash(options.get("hashFunction")) + "' from system_range(1, " + users + ")");
+            statement.execute("create unique index users_username on users (username)");
+        }
+        System.out.printf("Seeded %d users in %d ms%n", users, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static String hash(String hashFunction) throws Exception {
+        if (hashFunction.toLowerCase().contains("blowfish")) {
+            return BCrypt.hashpw(PASSWORD, BCrypt.gensalt(10));
+        }
+        if (hashFunction.startsWith("Argon2")) {
+            Argon2Types type = Argon2Types.valueOf("ARGON2" + hashFunction.substring("Argon2".length()));
+            return Argon2Factory.create(type).hash(2, 19456, 1, PASSWORD.toCharArray());
+        }
+        if ("PBKDF2-SHA256".equals(hashFunction)) {
+            String     salt = "c2FsdHNhbHQ";
+            PBEKeySpec spec = new PBEKeySpec(PASSWORD.toCharArray(), salt.getBytes(), 27500, 256);
+            byte[]     key  = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            return "$27500$" + salt + "$" + Base64.getEncoder().encodeToString(key);
+        }
+        return new DigestUtils(hashFunction).digestAsHex(PASSWORD);
+    }
+
+    /**
+     * Assembles the provider the way {@link DBUserStorageProviderFactory} does, with the H2 driver instead of the
+     * PostgreSQL one.
+     */
+    private void start() {
+        String user = "select id, username, email, first_name as \"firstName\", last_name as \"lastName\" from users";
+        model.setId("login-storm");
+        model.setName("login-storm");
+
+        dataSourceProvider = new DataSourceProvider();
+        dataSourceProvider.configure(url(), "org.h2.Driver", "SELECT 1", "sa", "", model.getName(),
+                                     new PoolConfiguration(intOption("maximumPoolSize"), intOption("maximumPoolSize"), 30000L, 1800000L, 0L));
+        queryConfigurations = new QueryConfigurations(
+                "select count(*) from users",
+                null,
+                user,
+                user + " where id = cast(? as bigint)",
+                user + " where username = ?",
+                user + " where email = ?",
+                user + " where upper(username) like (?) or upper(email) like (?)",
+                null,
+                "select hash_pwd from users where username = ?",
+                Boolean.parseBoolean(options.get("combinedQuery")) ? "select id, username, email, first_name as \"firstName\", last_name as \"lastName\", hash_pwd from users where username = ?" : null,
+                null,
+                null,
+                "hash_pwd",
+                options.get("hashFunction"),
+                RDBMS.POSTGRESQL,
+                false,
+                false,
+                500L,
+                false,
+                false,
+                0,
+                0,
+                null,
+                false
+        );
+        userLookupCache = new UserLookupCache(Long.parseLong(options.get("lookupCacheMaxSize")), 30L, 5L);
+        passwordVerificationExecutor = new PasswordVerificationExecutor(model.getName(), intOption("passwordVerificationThreads"), 1000);
+        metrics = new ProviderMetrics(model.getId(), meterRegistry);
+        metrics.bindPool(dataSourceProvider);
+        metrics.bindLookupCache(userLookupCache);
+        metrics.bindAttributeSync(attributeSyncStats);
+        metrics.bindPasswordVerification(passwordVerificationExecutor);
+        repository = new UserRepository(dataSourceProvider, queryConfigurations, userLookupCache, new UserCountCache(30L), new QueryExecutor(model.getName(), 0), passwordVerificationExecutor, metrics, new QueryLogger(1000L, 100));
+
+        UserFederatedStorageProvider federatedStorage = Stubs.stub(UserFederatedStorageProvider.class, federatedStorageAnswers());
+        Map<String, Function<Object[], Object>> sessionAnswers = new HashMap<>();
+        sessionAnswers.put("getProvider", args -> args[0] == UserFederatedStorageProvider.class ? federatedStorage : null);
+        session = Stubs.stub(KeycloakSession.class, sessionAnswers);
+        Map<String, Function<Object[], Object>> realmAnswers = new HashMap<>();
+        realmAnswers.put("getId", args -> "login-storm");
+        realm = Stubs.stub(RealmModel.class, realmAnswers);
+    }
+
+    private Map<String, Function<Object[], Object>> federatedStorageAnswers() {
+        Map<String, Function<Object[], Object>> answers = new HashMap<>();
+        answers.put("getAttributes", args -> {
+            MultivaluedHashMap<String, String> copy = new MultivaluedHashMap<>();
+            MultivaluedHashMap<String, String> stored = federatedAttributes.get((String) args[1]);
+            if (stored != null) {
+                synchronized (stored) {
+                    stored.forEach((name, values) -> copy.put(name, new ArrayList<>(values)));
+                }
+            }
+            return copy;
+        });
+        answers.put("setSingleAttribute", args -> {
+            MultivaluedHashMap<String, String> stored = federatedAttributes.computeIfAbsent((String) args[1], id -> new MultivaluedHashMap<>());
+            synchronized (stored) {
+                stored.putSingle((String) args[2], (String) args[3]);
+            }
+            return null;
+        });
+        answers.put("setAttribute", args -> {
+            MultivaluedHashMap<String, String> stored = federatedAttributes.computeIfAbsent((String) args[1], id -> new MultivaluedHashMap<>());
+            synchronized (stored) {
+                @SuppressWarnings("unchecked")
+                List<String> values = (List<String>) args[3];
+                stored.put((String) args[2], new ArrayList<>(values));
+            }
+            return null;
+        });
+        answers.put("removeAttribute", args -> {
+            MultivaluedHashMap<String, String> stored = federatedAttributes.get((String) args[1]);
+            if (stored != null) {
+                synchronized (stored) {
+                    stored.remove((String) args[2]);
+                }
+            }
+            return null;
+        });
+        return answers;
+    }
+
+    private void run() throws InterruptedException {
+        int            threads     = intOption("threads");
+        int            users       = intOption("users");
+        long           measure     = TimeUnit.SECONDS.toNanos(intOption("seconds"));
+        long           measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(intOption("warmupSeconds"));
+        long           end         = measureFrom + measure;
+        LatencyLog[]   lookups     = new LatencyLog[threads];
+        LatencyLog[]   logins      = new LatencyLog[threads];
+        CountDownLatch done        = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            LatencyLog lookupLog = lookups[t] = new LatencyLog();
+            LatencyLog loginLog  = logins[t] = new LatencyLog();
+            Thread worker = new Thread(() -> {
+                try {
+                    long now;
+                    while ((now = System.nanoTime()) < end) {
+                        boolean measured = now >= measureFrom;
+                        login("user" + (1 + ThreadLocalRandom.current().nextInt(users)), measured ? lookupLog : null, measured ? loginLog : null);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "login-storm-" + t);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        done.await();
+        report("getUserByUsername", lookups, measure);
+        report("isValid", logins, measure);
+        System.out.printf("failures=%d lookupCache(hits=%d, misses=%d) attributes(written=%d, skipped=%d)%n",
+                          failures.sum(), userLookupCache.getHitCount(), userLookupCache.getMissCount(),
+                          attributeSyncStats.getWritten(), attributeSyncStats.getSkipped());
+        meterRegistry.getMeters().stream()
+                     .filter(Timer.class::isInstance)
+                     .map(Timer.class::cast)
+                     .filter(timer -> timer.count() > 0)
+                     .forEach(timer -> System.out.printf("%-45s %-30s count=%d mean=%.3fms max=%.3fms%n",
+                                                         timer.getId().getName(), timer.getId().getTags(), timer.count(),
+                                                         timer.mean(TimeUnit.MILLISECONDS), timer.max(TimeUnit.MILLISECONDS)));
+    }
+
+    private void login(String username, LatencyLog lookupLog, LatencyLog loginLog) {
+        DBUserStorageProvider provider = new DBUserStorageProvider(session, model, repository, queryConfigurations, attributeSyncStats);
+        try {
+            long      start = System.nanoTime();
+            UserModel user  = provider.getUserByUsername(realm, username);
+            long      found = System.nanoTime();
+            if (user == null) {
+                failures.increment();
+                return;
+            }
+            boolean valid = provider.isValid(realm, user, new UserCredentialModel(null, PasswordCredentialModel.TYPE, PASSWORD));
+            long    end   = System.nanoTime();
+            if (!valid) {
+                failures.increment();
+            }
+            if (lookupLog != null) {
+                lookupLog.add(found - start);
+                loginLog.add(end - found);
+            }
+        } catch (RuntimeException e) {
+            failures.increment();
+        } finally {
+            provider.close();
+        }
+    }
+
+    private static void report(String operation, LatencyLog[] logs, long measureNanos) {
+        int count = 0;
+        for (LatencyLog log : logs) {
+            count += log.size;
+        }
+        long[] all = new long[count];
+        int    pos = 0;
+        for (LatencyLog log : logs) {
+            System.arraycopy(log.values, 0, all, pos, log.size);
+            pos += log.size;
+        }
+        Arrays.sort(all);
+        System.out.printf("%-18s ops=%d throughput=%.0f/s p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms%n",
+                          operation, count, count / (measureNanos / 1e9),
+                          millis(percentile(all, 0.50)), millis(percentile(all, 0.99)), millis(percentile(all, 0.999)),
+                          millis(count == 0 ? 0 : all[count - 1]));
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private void stop() {
+        if (passwordVerificationExecutor != null) {
+            passwordVerificationExecutor.close();
+        }
+        if (dataSourceProvider != null) {
+            dataSourceProvider.close();
+        }
+        if (metrics != null) {
+            metrics.close();
+        }
+    }
+
+    /**
+     * Latencies recorded by one worker thread.
+     */
+    private static class LatencyLog {
+        private long[] values = new long[1 << 16];
+        private int    size;
+
+        private void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.opensingular.dbuserprovider.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Interface stand-ins for benchmarks: every method returns the answer registered for its name, or the default value
+ * of its return type.
+ */
+public class Stubs {
+
+    private Stubs() {
+    }
+
+    public static <T> T stub(Class<T> type, Map<String, Function<Object[], Object>> answers) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Function<Object[], Object> answer = answers.get(method.getName());
+            if (answer != null) {
+                return answer.apply(args);
+            }
+            if ("hashCode".equals(method.getName())) {
+                return System.identityHashCode(proxy);
+            }
+            if ("equals".equals(method.getName())) {
+                return proxy == args[0];
+            }
+            return defaultValue(method.getReturnType());
+        }));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        if (type == double.class) {
+            return 0d;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+
+    /**
+     * A forward only result set over {@code rows}, read by label or by (1 based) index in the order of {@code columns}.
+     */
+    public static ResultSet resultSet(List<String> columns, List<String[]> rows) {
+        Map<String, Function<Object[], Object>> metaData = new HashMap<>();
+        metaData.put("getColumnCount", args -> columns.size());
+        metaData.put("getColumnLabel", args -> columns.get((Integer) args[0] - 1));
+        metaData.put("getColumnName", args -> columns.get((Integer) args[0] - 1));
+        ResultSetMetaData resultSetMetaData = stub(ResultSetMetaData.class, metaData);
+
+        int[]                                   cursor  = {-1};
+        Map<String, Function<Object[], Object>> answers = new HashMap<>();
+        answers.put("getMetaData", args -> resultSetMetaData);
+        answers.put("next", args -> ++cursor[0] < rows.size());
+        answers.put("getString", args -> value(columns, rows.get(cursor[0]), args[0]));
+        answers.put("getObject", args -> value(columns, rows.get(cursor[0]), args[0]));
+        return stub(ResultSet.class, answers);
+    }
+
+    private static String value(List<String> columns, String[] row, Object column) {
+        int index = column instanceof Integer ? (Integer) column - 1 : columns.indexOf(column);
+        return row[index];
+    }
+}
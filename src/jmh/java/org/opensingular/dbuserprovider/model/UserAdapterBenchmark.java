@@ -0,0 +1,99 @@
+package org.opensingular.dbuserprovider.model;
+
+import org.keycloak.common.util.MultivaluedHashMap;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.storage.federated.UserFederatedStorageProvider;
+import org.opensingular.dbuserprovider.benchmark.Stubs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Creating a user adapter from a row and reading it the way an admin listing does, against an in-memory federated
+ * storage. {@code upToDate} selects whether federated storage already holds the row values (the usual case) or every
+ * attribute has to be written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserAdapterBenchmark {
+
+    @Param({"false", "true"})
+    public boolean lazy;
+
+    @Param({"true", "false"})
+    public boolean upToDate;
+
+    private KeycloakSession     session;
+    private RealmModel          realm;
+    private ComponentModel      model;
+    private Map<String, String> row;
+    private AttributeSyncStats  syncStats;
+
+    @Setup
+    public void setup() {
+        row = new HashMap<>();
+        row.put("id", "42");
+        row.put("username", "jdoe");
+        row.put("email", "jdoe@example.com");
+        row.put("firstName", "John");
+        row.put("lastName", "Doe");
+        row.put("department", "Sales");
+        row.put("phone", "+1 555 0142");
+
+        MultivaluedHashMap<String, String> stored = new MultivaluedHashMap<>();
+        if (upToDate) {
+            stored.putSingle("email", "jdoe@example.com");
+            stored.putSingle("firstName", "John");
+            stored.putSingle("lastName", "Doe");
+            stored.putSingle("department", "Sales");
+            stored.putSingle("phone", "+1 555 0142");
+        }
+        Map<String, Function<Object[], Object>> storage = new HashMap<>();
+        storage.put("getAttributes", args -> copy(stored));
+        UserFederatedStorageProvider federatedStorage = Stubs.stub(UserFederatedStorageProvider.class, storage);
+
+        Map<String, Function<Object[], Object>> sessionAnswers = new HashMap<>();
+        sessionAnswers.put("getProvider", args -> args[0] == UserFederatedStorageProvider.class ? federatedStorage : null);
+        session = Stubs.stub(KeycloakSession.class, sessionAnswers);
+        realm = Stubs.stub(RealmModel.class, Collections.singletonMap("getId", args -> "benchmark"));
+        model = new ComponentModel();
+        model.setId("f3c1a2b4-0000-4000-8000-000000000000");
+        syncStats = new AttributeSyncStats();
+    }
+
+    private static MultivaluedHashMap<String, String> copy(MultivaluedHashMap<String, String> stored) {
+        MultivaluedHashMap<String, String> copy = new MultivaluedHashMap<>();
+        for (Map.Entry<String, List<String>> e : stored.entrySet()) {
+            copy.put(e.getKey(), new ArrayList<>(e.getValue()));
+        }
+        return copy;
+    }
+
+    @Benchmark
+    public String listingRow() {
+        UserAdapter adapter = new UserAdapter(session, realm, model, row, true, syncStats, lazy);
+        return adapter.getUsername() + adapter.getEmail() + adapter.getFirstName() + adapter.getLastName();
+    }
+}
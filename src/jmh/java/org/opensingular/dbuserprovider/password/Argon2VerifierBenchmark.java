@@ -0,0 +1,48 @@
+package org.opensingular.dbuserprovider.password;
+
+import de.mkammerer.argon2.Argon2Factory;
+import de.mkammerer.argon2.Argon2Factory.Argon2Types;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Argon2id verification, including the memory budget reservation, at a few memory costs (in KiB).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Argon2VerifierBenchmark {
+
+    private static final String PASSWORD = "correct horse battery staple";
+
+    @Param({"19456", "65536"})
+    public int memoryKib;
+
+    private PasswordVerifier verifier;
+    private String           hash;
+
+    @Setup
+    public void setup() {
+        verifier = PasswordVerifiers.resolve("Argon2id");
+        hash = Argon2Factory.create(Argon2Types.ARGON2id).hash(2, memoryKib, 1, PASSWORD.toCharArray());
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return verifier.verify(PASSWORD, hash);
+    }
+}
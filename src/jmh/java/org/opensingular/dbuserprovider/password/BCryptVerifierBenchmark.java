@@ -0,0 +1,54 @@
+package org.opensingular.dbuserprovider.password;
+
+import org.mindrot.jbcrypt.BCrypt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * bcrypt verification with jBCrypt ("Blowfish (bcrypt)") and with the built-in engine ("Blowfish (bcrypt, built-in)").
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BCryptVerifierBenchmark {
+
+    private static final String PASSWORD = "correct horse battery staple";
+
+    @Param({"10", "11", "12", "13", "14"})
+    public int cost;
+
+    private PasswordVerifier jBCrypt;
+    private PasswordVerifier builtIn;
+    private String           hash;
+
+    @Setup
+    public void setup() {
+        jBCrypt = PasswordVerifiers.resolve("Blowfish (bcrypt)");
+        builtIn = PasswordVerifiers.resolve(BuiltInBCryptPasswordVerifier.HASH_FUNCTION);
+        hash = BCrypt.hashpw(PASSWORD, BCrypt.gensalt(cost));
+    }
+
+    @Benchmark
+    public boolean jBCrypt() {
+        return jBCrypt.verify(PASSWORD, hash);
+    }
+
+    @Benchmark
+    public boolean builtIn() {
+        return builtIn.verify(PASSWORD, hash);
+    }
+}
@@ -0,0 +1,47 @@
+package org.opensingular.dbuserprovider.password;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hex digest password hashes, through the configured verifier.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DigestVerifierBenchmark {
+
+    private static final String PASSWORD = "correct horse battery staple";
+
+    @Param({"MD5", "SHA-1", "SHA-256", "SHA-512"})
+    public String hashFunction;
+
+    private PasswordVerifier verifier;
+    private String           hash;
+
+    @Setup
+    public void setup() {
+        verifier = PasswordVerifiers.resolve(hashFunction);
+        hash = new DigestUtils(hashFunction).digestAsHex(PASSWORD);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return verifier.verify(PASSWORD, hash);
+    }
+}
@@ -0,0 +1,66 @@
+package org.opensingular.dbuserprovider.password;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PBKDF2-SHA256 verification, compared with deriving the key through a new {@link SecretKeyFactory} per call
+ * (the previous implementation).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PBKDF2VerifierBenchmark {
+
+    private static final String PASSWORD = "correct horse battery staple";
+    private static final String SALT     = "Q2hhbmdlTWU";
+
+    @Param({"10000", "100000", "310000", "600000"})
+    public int iterations;
+
+    private PasswordVerifier verifier;
+    private String           hash;
+    private String           key;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        verifier = PasswordVerifiers.resolve("PBKDF2-SHA256");
+        key = secretKeyFactory();
+        hash = "$" + iterations + "$" + SALT + "$" + key;
+    }
+
+    private String secretKeyFactory() throws GeneralSecurityException {
+        SecretKeyFactory skf  = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        PBEKeySpec       spec = new PBEKeySpec(PASSWORD.toCharArray(), SALT.getBytes(), iterations, 256);
+        return Base64.getEncoder().encodeToString(skf.generateSecret(spec).getEncoded());
+    }
+
+    @Benchmark
+    public boolean verifier() {
+        return verifier.verify(PASSWORD, hash);
+    }
+
+    @Benchmark
+    public boolean secretKeyFactoryPerCall() throws GeneralSecurityException {
+        return Objects.equals(key, secretKeyFactory());
+    }
+}
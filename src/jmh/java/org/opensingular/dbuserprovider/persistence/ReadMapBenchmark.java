@@ -0,0 +1,57 @@
+package org.opensingular.dbuserprovider.persistence;
+
+import org.opensingular.dbuserprovider.benchmark.Stubs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a user listing into maps, from an in-memory result set shaped like a typical user query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadMapBenchmark {
+
+    private static final String       QUERY   = "select * from users";
+    private static final List<String> COLUMNS = Arrays.asList("id", "username", "email", "firstName", "lastName", "department", "phone", "locale");
+
+    @Param({"1", "100", "1000"})
+    public int rows;
+
+    private UserRepository repository;
+    private List<String[]> data;
+
+    @Setup
+    public void setup() {
+        repository = new UserRepository(null, null, null, null, null, null, null, null);
+        data = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            data.add(new String[]{String.valueOf(i), "user" + i, "user" + i + "@example.com", "First" + i, "Last" + i, "Sales", "+1 555 01" + i, "en"});
+        }
+    }
+
+    @Benchmark
+    public List<Map<String, String>> readMap() {
+        ResultSet rs = Stubs.resultSet(COLUMNS, data);
+        return repository.readMap(rs, repository.rowSchema(QUERY, rs));
+    }
+}
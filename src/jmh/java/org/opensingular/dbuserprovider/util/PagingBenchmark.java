@@ -0,0 +1,43 @@
+package org.opensingular.dbuserprovider.util;
+
+import org.opensingular.dbuserprovider.persistence.RDBMS;
+import org.opensingular.dbuserprovider.util.PagingUtil.Pageable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the paged query and its parameters for a search page, per database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PagingBenchmark {
+
+    private static final String   QUERY    = "select \"id\", \"username\", \"email\", \"firstName\", \"lastName\" from users "
+                                             + "where upper(\"username\") like (?) or upper(\"email\") like (?) order by \"username\"";
+    private static final Object[] PARAMS   = {"%JOHN%", "%JOHN%"};
+    private static final Pageable PAGEABLE = new Pageable(40, 20);
+
+    @Param({"POSTGRESQL", "MYSQL", "ORACLE", "SQL_SERVER"})
+    public RDBMS rdbms;
+
+    @Benchmark
+    public void pagedQuery(Blackhole blackhole) {
+        blackhole.consume(PagingUtil.pagedQuery(QUERY, rdbms));
+        blackhole.consume(PagingUtil.withPageParameters(PARAMS, PAGEABLE, rdbms));
+    }
+}
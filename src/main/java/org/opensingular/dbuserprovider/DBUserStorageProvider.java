@@ -6,6 +6,7 @@ import org.keycloak.credential.CredentialInput;
 import org.keycloak.credential.CredentialInputUpdater;
 import org.keycloak.credential.CredentialInputValidator;
 import org.keycloak.models.cache.CachedUserModel;
+import org.keycloak.models.cache.OnUserCache;
 import org.keycloak.models.*;
 import org.keycloak.models.credential.PasswordCredentialModel;
 import org.keycloak.storage.StorageId;
@@ -13,12 +14,14 @@ import org.keycloak.storage.UserStorageProvider;
 import org.keycloak.storage.user.UserLookupProvider;
 import org.keycloak.storage.user.UserQueryProvider;
 import org.keycloak.storage.user.UserRegistrationProvider;
+import org.opensingular.dbuserprovider.model.AttributeSyncStats;
 import org.opensingular.dbuserprovider.model.QueryConfigurations;
 import org.opensingular.dbuserprovider.model.UserAdapter;
-import org.opensingular.dbuserprovider.persistence.DataSourceProvider;
 import org.opensingular.dbuserprovider.persistence.UserRepository;
 import org.opensingular.dbuserprovider.util.PagingUtil;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -26,24 +29,48 @@ import java.util.stream.Stream;
 
 @JBossLog
 public class DBUserStorageProvider implements UserStorageProvider,
-                                              UserLookupProvider, UserQueryProvider, CredentialInputUpdater, CredentialInputValidator, UserRegistrationProvider {
+                                              UserLookupProvider, UserQueryProvider, CredentialInputUpdater, CredentialInputValidator, UserRegistrationProvider, OnUserCache {
+    
+    // key of the user version in the data Keycloak caches with the user
+    private static final String VERSION = "singular-db-user-provider.version";
     
     private final KeycloakSession session;
     private final ComponentModel  model;
     private final UserRepository  repository;
     private final boolean allowDatabaseToOverwriteKeycloak;
+    private final long userFreshnessWindow;
+    private final boolean versionCheck;
+    private final boolean lazyListingAttributes;
+    private final boolean streamSearchResults;
+    private final int maxResultRows;
+    private final boolean prefetchSearchCount;
+    private final AttributeSyncStats attributeSyncStats;
+    // password hashes read together with the user row, by external id; only kept for this session
+    private final Map<String, String> passwordHashes = new HashMap<>();
+    // result set backed streams not yet closed by their consumer; closed together with the session
+    private final List<Stream<?>> openStreams = new ArrayList<>();
 
-    DBUserStorageProvider(KeycloakSession session, ComponentModel model, DataSourceProvider dataSourceProvider, QueryConfigurations queryConfigurations) {
+    DBUserStorageProvider(KeycloakSession session, ComponentModel model, UserRepository repository, QueryConfigurations queryConfigurations, AttributeSyncStats attributeSyncStats) {
         this.session    = session;
         this.model      = model;
-        this.repository = new UserRepository(dataSourceProvider, queryConfigurations);
+        this.repository = repository;
         this.allowDatabaseToOverwriteKeycloak = queryConfigurations.getAllowDatabaseToOverwriteKeycloak();
+        this.userFreshnessWindow = queryConfigurations.getUserFreshnessWindow();
+        this.versionCheck = queryConfigurations.hasFindVersionById();
+        this.lazyListingAttributes = queryConfigurations.getLazyListingAttributes();
+        this.streamSearchResults = queryConfigurations.getStreamSearchResults();
+        this.maxResultRows = queryConfigurations.getMaxResultRows();
+        this.prefetchSearchCount = queryConfigurations.getPrefetchSearchCount();
+        this.attributeSyncStats = attributeSyncStats;
     }
     
     
     private Stream<UserModel> toUserModel(RealmModel realm, List<Map<String, String>> users) {
-        return users.stream()
-                    .map(m -> new UserAdapter(session, realm, model, m, allowDatabaseToOverwriteKeycloak));
+        return toUserModel(realm, users.stream());
+    }
+    
+    private Stream<UserModel> toUserModel(RealmModel realm, Stream<Map<String, String>> users) {
+        return users.map(m -> new UserAdapter(session, realm, model, m, allowDatabaseToOverwriteKeycloak, attributeSyncStats, lazyListingAttributes));
     }
     
     
@@ -57,10 +84,39 @@ public class DBUserStorageProvider implements UserStorageProvider,
         return supportsCredentialType(credentialType);
     }
     
+    /**
+     * Remembers the version of the user when Keycloak caches it, so that {@link #isValid} only reloads it once it changed.
+     */
+    @Override
+    public void onCache(RealmModel realm, CachedUserModel user, UserModel delegate) {
+        if (allowDatabaseToOverwriteKeycloak && versionCheck) {
+            String version = repository.findVersionById(StorageId.externalId(user.getId()));
+            if (version != null) {
+                user.getCachedWith().put(VERSION, version);
+            }
+        }
+    }
+    
+    /**
+     * True when the version query is set and still returns the version read when the user was cached. The new version
+     * is kept, so a user whose change did not touch its username or email is not reloaded again.
+     */
+    private boolean sameVersion(CachedUserModel user) {
+        if (!versionCheck) {
+            return false;
+        }
+        String version = repository.findVersionById(StorageId.externalId(user.getId()));
+        if (version == null) {
+            return false;
+        }
+        Object cachedVersion = user.getCachedWith().put(VERSION, version);
+        return version.equals(cachedVersion);
+    }
+    
     @Override
     public boolean isValid(RealmModel realm, UserModel user, CredentialInput input) {
         
-        log.infov("isValid user credential: userId={0}", user.getId());
+        log.debugv("isValid user credential: userId={0}", user.getId());
         
         if (!supportsCredentialType(input.getType()) || !(input instanceof UserCredentialModel)) {
             return false;
@@ -69,8 +125,9 @@ public class DBUserStorageProvider implements UserStorageProvider,
         UserCredentialModel cred = (UserCredentialModel) input;
 
         UserModel dbUser = user;
-        // If the cache just got loaded in the last 500 millisec (i.e. probably part of the actual flow), there is no point in reloading the user.)
-        if (allowDatabaseToOverwriteKeycloak && user instanceof CachedUserModel && (System.currentTimeMillis() - ((CachedUserModel) user).getCacheTimestamp()) > 500) {
+        // If the cache just got loaded within the freshness window (i.e. probably part of the actual flow), there is no point in reloading the user.)
+        if (allowDatabaseToOverwriteKeycloak && user instanceof CachedUserModel && (System.currentTimeMillis() - ((CachedUserModel) user).getCacheTimestamp()) > userFreshnessWindow
+            && !sameVersion((CachedUserModel) user)) {
           dbUser = this.getUserById(realm, user.getId());
 
           if (dbUser == null) {
@@ -83,13 +140,17 @@ public class DBUserStorageProvider implements UserStorageProvider,
             ((CachedUserModel) user).invalidate();
           }
         }
+        String hash = passwordHashes.remove(StorageId.externalId(dbUser.getId()));
+        if (hash != null) {
+            return repository.verifyPassword(hash, cred.getChallengeResponse());
+        }
         return repository.validateCredentials(dbUser.getUsername(), cred.getChallengeResponse());
     }
     
     @Override
     public boolean updateCredential(RealmModel realm, UserModel user, CredentialInput input) {
         
-        log.infov("updating credential: realm={0} user={1}", realm.getId(), user.getUsername());
+        log.debugv("updating credential: realm={0} user={1}", realm.getId(), user.getUsername());
         
         if (!supportsCredentialType(input.getType()) || !(input instanceof UserCredentialModel)) {
             return false;
@@ -130,12 +191,15 @@ public class DBUserStorageProvider implements UserStorageProvider,
     @Override
     public void close() {
         log.debugv("closing");
+        passwordHashes.clear();
+        openStreams.forEach(Stream::close);
+        openStreams.clear();
     }
     
     @Override
     public UserModel getUserById(RealmModel realm, String id) {
         
-        log.infov("lookup user by id: realm={0} userId={1}", realm.getId(), id);
+        log.debugv("lookup user by id: realm={0} userId={1}", realm.getId(), id);
         
         String externalId = StorageId.externalId(id);
         Map<String, String> user = repository.findUserById(externalId);
@@ -144,24 +208,24 @@ public class DBUserStorageProvider implements UserStorageProvider,
             log.debugv("findUserById returned null, skipping creation of UserAdapter, expect login error");
             return null;
         } else {
-            return new UserAdapter(session, realm, model, user, allowDatabaseToOverwriteKeycloak);
+            return new UserAdapter(session, realm, model, user, allowDatabaseToOverwriteKeycloak, attributeSyncStats);
         }
     }
     
     @Override
     public UserModel getUserByUsername(RealmModel realm, String username) {
         
-        log.infov("lookup user by username: realm={0} username={1}", realm.getId(), username);
+        log.debugv("lookup user by username: realm={0} username={1}", realm.getId(), username);
         
-        return repository.findUserByUsername(username).map(u -> new UserAdapter(session, realm, model, u, allowDatabaseToOverwriteKeycloak)).orElse(null);
+        return repository.findUserByUsername(username, (id, hash) -> passwordHashes.put(id, hash == null ? "" : hash)).map(u -> new UserAdapter(session, realm, model, u, allowDatabaseToOverwriteKeycloak, attributeSyncStats)).orElse(null);
     }
     
     @Override
     public UserModel getUserByEmail(RealmModel realm, String email) {
         
-        log.infov("lookup user by email: realm={0} email={1}", realm.getId(), email);
+        log.debugv("lookup user by email: realm={0} email={1}", realm.getId(), email);
         
-        return repository.findUserByEmail(email).map(u -> new UserAdapter(session, realm, model, u, allowDatabaseToOverwriteKeycloak)).orElse(null);
+        return repository.findUserByEmail(email).map(u -> new UserAdapter(session, realm, model, u, allowDatabaseToOverwriteKeycloak, attributeSyncStats)).orElse(null);
     }
     
     @Override
@@ -203,8 +267,8 @@ public class DBUserStorageProvider implements UserStorageProvider,
     public Stream<UserModel> searchForUserStream(RealmModel realm, String search, Integer firstResult,
         Integer maxResults)
     {
-        log.infov("list users: realm={0} firstResult={1} maxResults={2}", realm.getId(), firstResult, maxResults);
-        return internalSearchForUser(search, realm, new PagingUtil.Pageable(firstResult, maxResults));
+        log.debugv("list users: realm={0} firstResult={1} maxResults={2}", realm.getId(), firstResult, maxResults);
+        return internalSearchForUser(search, realm, toPageable(firstResult, maxResults));
     }
     
     @Override
@@ -212,14 +276,30 @@ public class DBUserStorageProvider implements UserStorageProvider,
         Integer maxResults)
     {
         String searchTerm = params.getOrDefault("keycloak.session.realm.users.query.search", "");
-        log.infov("search for users with params: realm={0} params={1}", realm.getId(), params);
-        return internalSearchForUser(searchTerm, realm, null);
+        log.debugv("search for users with params: realm={0} params={1} firstResult={2} maxResults={3}", realm.getId(), params, firstResult, maxResults);
+        return internalSearchForUser(searchTerm, realm, toPageable(firstResult, maxResults));
+    }
+    
+    /**
+     * Keycloak passes null or negative values when it wants no limit; those callers are capped at the
+     * configured maximum rows per query, so that the limit is pushed down to SQL instead of the whole table being read.
+     * An explicit maximum of zero asks for no rows at all.
+     */
+    private PagingUtil.Pageable toPageable(Integer firstResult, Integer maxResults) {
+        int first = firstResult == null || firstResult < 0 ? 0 : firstResult;
+        if (maxResults != null && maxResults >= 0) {
+            return new PagingUtil.Pageable(first, maxResults);
+        }
+        if (maxResultRows > 0) {
+            return new PagingUtil.Pageable(first, maxResultRows);
+        }
+        return first == 0 ? null : new PagingUtil.Pageable(first, Integer.MAX_VALUE - first);
     }
     
     @Override
     public Stream<UserModel> searchForUserByUserAttributeStream(RealmModel realm, String attrName, String attrValue)
     {
-        log.infov("search for group members: realm={0} attrName={1} attrValue={2}", realm.getId(), attrName, attrValue);
+        log.debugv("search for group members: realm={0} attrName={1} attrValue={2}", realm.getId(), attrName, attrValue);
         return Stream.empty();
     }
     
@@ -227,11 +307,24 @@ public class DBUserStorageProvider implements UserStorageProvider,
     public Stream<UserModel> getGroupMembersStream(RealmModel realm, GroupModel group, Integer firstResult,
         Integer maxResults)
     {
-        log.infov("search for group members with params: realm={0} groupId={1} firstResult={2} maxResults={3}", realm.getId(), group.getId(), firstResult, maxResults);
+        log.debugv("search for group members with params: realm={0} groupId={1} firstResult={2} maxResults={3}", realm.getId(), group.getId(), firstResult, maxResults);
         return Stream.empty();
     }
     
     private Stream<UserModel> internalSearchForUser(String search, RealmModel realm, PagingUtil.Pageable pageable) {
+        if (pageable != null && pageable.getMaxResults() == 0) {
+            // not every database accepts a page of zero rows (SQL Server rejects FETCH NEXT 0 ROWS)
+            return Stream.empty();
+        }
+        if (prefetchSearchCount) {
+            // the admin console asks for the count of the same search right after the page
+            repository.prefetchUsersCount(search);
+        }
+        if (streamSearchResults) {
+            Stream<Map<String, String>> users = repository.findUsersStream(search, pageable);
+            openStreams.add(users);
+            return toUserModel(realm, users);
+        }
         return toUserModel(realm, repository.findUsers(search, pageable));
     }
     
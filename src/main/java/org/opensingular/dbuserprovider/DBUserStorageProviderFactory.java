@@ -1,26 +1,49 @@
 package org.opensingular.dbuserprovider;
 
 import com.google.auto.service.AutoService;
+import io.micrometer.core.instrument.Metrics;
 import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.Config;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.component.ComponentValidationException;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
 import org.keycloak.provider.ProviderConfigProperty;
 import org.keycloak.provider.ProviderConfigurationBuilder;
 import org.keycloak.storage.UserStorageProviderFactory;
+import org.keycloak.storage.UserStorageProviderModel;
+import org.keycloak.storage.user.ImportSynchronization;
+import org.keycloak.storage.user.SynchronizationResult;
+import org.opensingular.dbuserprovider.metrics.ProviderMetrics;
+import org.opensingular.dbuserprovider.model.AttributeSyncStats;
+import org.opensingular.dbuserprovider.model.ChangedUserEvictor;
 import org.opensingular.dbuserprovider.model.QueryConfigurations;
+import org.opensingular.dbuserprovider.model.UserSynchronizer;
+import org.opensingular.dbuserprovider.password.Argon2MemoryBudget;
+import org.opensingular.dbuserprovider.password.PasswordVerificationExecutor;
 import org.opensingular.dbuserprovider.persistence.DataSourceProvider;
+import org.opensingular.dbuserprovider.persistence.PoolConfiguration;
+import org.opensingular.dbuserprovider.persistence.QueryExecutor;
+import org.opensingular.dbuserprovider.persistence.QueryLogger;
 import org.opensingular.dbuserprovider.persistence.RDBMS;
+import org.opensingular.dbuserprovider.persistence.UserCountCache;
+import org.opensingular.dbuserprovider.persistence.UserLookupCache;
+import org.opensingular.dbuserprovider.persistence.UserRepository;
 
-import java.util.HashMap;
+import java.sql.Timestamp;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 @JBossLog
 @AutoService(UserStorageProviderFactory.class)
-public class DBUserStorageProviderFactory implements UserStorageProviderFactory<DBUserStorageProvider> {
+public class DBUserStorageProviderFactory implements UserStorageProviderFactory<DBUserStorageProvider>, ImportSynchronization {
     
     private static final String PARAMETER_PLACEHOLDER_HELP = "Use '?' as parameter placeholder character (replaced only once). ";
     private static final String DEFAULT_HELP_TEXT          = "Select to query all users you must return at least: \"id\". " +
@@ -31,61 +54,194 @@ public class DBUserStorageProviderFactory implements UserStorageProviderFactory<
     private static final String PARAMETER_HELP             = " The %s is passed as query parameter.";
     
     
-    private Map<String, ProviderConfig> providerConfigPerInstance = new HashMap<>();
+    private Map<String, ProviderConfig> providerConfigPerInstance = new ConcurrentHashMap<>();
+    private KeycloakSessionFactory      sessionFactory;
+    private ScheduledExecutorService    changePoller;
     
     @Override
     public void init(Config.Scope config) {
+        Argon2MemoryBudget.configure(config.getLong("argon2MemoryBudgetMb", Argon2MemoryBudget.DEFAULT_BUDGET_MB),
+                                     config.getLong("argon2MemoryWaitMillis", Argon2MemoryBudget.DEFAULT_WAIT_MILLIS));
+        ProviderMetrics.bindArgon2Budget(Metrics.globalRegistry);
+    }
+    
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        this.sessionFactory = factory;
+        this.changePoller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "singular-user-provider-changes");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
     
     @Override
     public void close() {
+        if (changePoller != null) {
+            changePoller.shutdownNow();
+        }
         for (Map.Entry<String, ProviderConfig> pc : providerConfigPerInstance.entrySet()) {
             pc.getValue().dataSourceProvider.close();
+            pc.getValue().passwordVerificationExecutor.close();
+            pc.getValue().queryExecutor.close();
+            pc.getValue().metrics.close();
+        }
+    }
+    
+    @Override
+    public synchronized void preRemove(KeycloakSession session, RealmModel realm, ComponentModel model) {
+        ProviderConfig providerConfig = providerConfigPerInstance.remove(model.getId());
+        if (providerConfig == null) {
+            return;
         }
+        log.infov("Closing configuration of removed model: id={0} name={1}", model.getId(), model.getName());
+        if (providerConfig.changePoll != null) {
+            providerConfig.changePoll.cancel(false);
+        }
+        providerConfig.metrics.close();
+        providerConfig.dataSourceProvider.close();
+        providerConfig.passwordVerificationExecutor.close();
+        providerConfig.queryExecutor.close();
     }
     
     @Override
     public DBUserStorageProvider create(KeycloakSession session, ComponentModel model) {
-        ProviderConfig providerConfig = providerConfigPerInstance.computeIfAbsent(model.getId(), s -> configure(model));
-        return new DBUserStorageProvider(session, model, providerConfig.dataSourceProvider, providerConfig.queryConfigurations);
+        ProviderConfig providerConfig = providerConfigPerInstance.computeIfAbsent(model.getId(), s -> configure(model, null));
+        return new DBUserStorageProvider(session, model, providerConfig.userRepository, providerConfig.queryConfigurations, providerConfig.attributeSyncStats);
     }
     
-    private synchronized ProviderConfig configure(ComponentModel model) {
+    /**
+     * Builds the configuration of a component. When the component is reconfigured, the {@code previous} data source provider
+     * is kept and its pool hot swapped, so that sessions still holding the previous configuration keep working.
+     * Everything that can reject the configuration (queries, hash function, settings) is built before the pool is touched,
+     * so a rejected reconfiguration leaves the running component as it was.
+     */
+    private synchronized ProviderConfig configure(ComponentModel model, ProviderConfig previous) {
         log.infov("Creating configuration for model: id={0} name={1}", model.getId(), model.getName());
         ProviderConfig providerConfig = new ProviderConfig();
+        if (previous != null) {
+            providerConfig.dataSourceProvider = previous.dataSourceProvider;
+        }
         String         user           = model.get("user");
         String         password       = model.get("password");
         String         url            = model.get("url");
         RDBMS          rdbms          = RDBMS.getByDescription(model.get("rdbms"));
-        providerConfig.dataSourceProvider.configure(url, rdbms, user, password, model.getName());
+        PoolConfiguration poolConfiguration = new PoolConfiguration(
+                model.get("maximumPoolSize", 10),
+                model.get("minimumIdle", 10),
+                model.get("connectionTimeout", 30000L),
+                model.get("maxLifetime", 1800000L),
+                model.get("leakDetectionThreshold", 0L)
+        );
         providerConfig.queryConfigurations = new QueryConfigurations(
                 model.get("count"),
+                model.get("estimatedCountTable"),
                 model.get("listAll"),
                 model.get("findById"),
                 model.get("findByUsername"),
                 model.get("findByEmail"),
                 model.get("findBySearchTerm"),
+                model.get("countBySearchTerm"),
                 model.get("findPasswordHash"),
+                model.get("findUserWithPasswordHash"),
+                model.get("findChangedSince"),
+                model.get("findVersionById"),
+                model.get("passwordHashColumn", "hash_pwd"),
                 model.get("hashFunction"),
                 rdbms,
                 model.get("allowKeycloakDelete", false),
-                model.get("allowDatabaseToOverwriteKeycloak", false)
+                model.get("allowDatabaseToOverwriteKeycloak", false),
+                model.get("userFreshnessWindow", 500L),
+                model.get("lazyListingAttributes", false),
+                model.get("streamSearchResults", false),
+                model.get("fetchSize", 0),
+                model.get("maxResultRows", 10000),
+                model.get("keysetColumn"),
+                model.get("prefetchSearchCount", false)
+        );
+        providerConfig.userLookupCache = new UserLookupCache(
+                model.get("lookupCacheMaxSize", 0L),
+                model.get("lookupCacheTtl", 30L),
+                model.get("lookupCacheNegativeTtl", 5L)
         );
+        providerConfig.userCountCache = new UserCountCache(model.get("countCacheTtl", 30L));
+        QueryLogger queryLogger           = new QueryLogger(model.get("slowQueryThreshold", 1000L), model.get("queryLogSampleRate", 100));
+        long        pollInterval          = TimeUnit.SECONDS.toMillis(Math.max(model.get("changePollInterval", 30L), 1L));
+        int         queryThreads          = model.get("queryThreads", 2);
+        int         verificationThreads   = model.get("passwordVerificationThreads", 0);
+        int         verificationQueueSize = model.get("passwordVerificationQueueSize", 100);
+
+        // last step that can fail: from here on the configuration is accepted
+        providerConfig.dataSourceProvider.configure(url, rdbms, user, password, model.getName(), poolConfiguration);
+
+        providerConfig.queryExecutor = new QueryExecutor(model.getName(), queryThreads);
+        providerConfig.passwordVerificationExecutor = new PasswordVerificationExecutor(model.getName(), verificationThreads, verificationQueueSize);
+        if (previous != null) {
+            // sessions still holding the previous configuration run their remaining queries and verifications on their own thread
+            previous.queryExecutor.close();
+            previous.passwordVerificationExecutor.close();
+            previous.metrics.close();
+        }
+        providerConfig.metrics = new ProviderMetrics(model.getId(), Metrics.globalRegistry);
+        providerConfig.metrics.bindPool(providerConfig.dataSourceProvider);
+        providerConfig.metrics.bindLookupCache(providerConfig.userLookupCache);
+        providerConfig.metrics.bindAttributeSync(providerConfig.attributeSyncStats);
+        providerConfig.metrics.bindPasswordVerification(providerConfig.passwordVerificationExecutor);
+        providerConfig.userRepository = new UserRepository(providerConfig.dataSourceProvider, providerConfig.queryConfigurations, providerConfig.userLookupCache, providerConfig.userCountCache, providerConfig.queryExecutor, providerConfig.passwordVerificationExecutor, providerConfig.metrics,
+                                                           queryLogger);
+        if (previous != null && previous.changePoll != null) {
+            previous.changePoll.cancel(false);
+        }
+        if (providerConfig.queryConfigurations.hasFindChangedSince() && changePoller != null) {
+            providerConfig.changePoll = changePoller.scheduleWithFixedDelay(new ChangedUserEvictor(sessionFactory, model, providerConfig.userRepository, providerConfig.userLookupCache, providerConfig.userCountCache, pollInterval),
+                                                                            pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+        }
         return providerConfig;
     }
     
     @Override
     public void validateConfiguration(KeycloakSession session, RealmModel realm, ComponentModel model) throws ComponentValidationException {
         try {
-            ProviderConfig old = providerConfigPerInstance.put(model.getId(), configure(model));
-            if (old != null) {
-                old.dataSourceProvider.close();
-            }
+            providerConfigPerInstance.put(model.getId(), configure(model, providerConfigPerInstance.get(model.getId())));
         } catch (Exception e) {
             throw new ComponentValidationException(e.getMessage(), e);
         }
     }
     
+    /**
+     * Merges every user of the list all query into Keycloak's federated attributes ahead of time, so first logins do not
+     * pay for it. Users are still looked up in the external database; nothing is imported into Keycloak's user table.
+     */
+    @Override
+    public SynchronizationResult sync(KeycloakSessionFactory sessionFactory, String realmId, UserStorageProviderModel model) {
+        ProviderConfig providerConfig = providerConfigPerInstance.computeIfAbsent(model.getId(), s -> configure(model, null));
+        return synchronizer(providerConfig, model).sync(sessionFactory, realmId, model);
+    }
+    
+    /**
+     * With a changed since query, only the users it returns since the last sync (minus one changed users sync period, to
+     * absorb clock differences) are merged. Without one, the database has no change tracking the provider could use, so
+     * a changed users sync is a full sync.
+     */
+    @Override
+    public SynchronizationResult syncSince(Date lastSync, KeycloakSessionFactory sessionFactory, String realmId, UserStorageProviderModel model) {
+        ProviderConfig providerConfig = providerConfigPerInstance.computeIfAbsent(model.getId(), s -> configure(model, null));
+        if (lastSync == null || !providerConfig.queryConfigurations.hasFindChangedSince()) {
+            return sync(sessionFactory, realmId, model);
+        }
+        long      overlapMillis = TimeUnit.SECONDS.toMillis(Math.max(model.getChangedSyncPeriod(), 0));
+        Timestamp since         = new Timestamp(lastSync.getTime() - overlapMillis);
+        return synchronizer(providerConfig, model).syncChangedSince(since, sessionFactory, realmId, model);
+    }
+    
+    private static UserSynchronizer synchronizer(ProviderConfig providerConfig, UserStorageProviderModel model) {
+        return new UserSynchronizer(providerConfig.userRepository,
+                                    providerConfig.queryConfigurations.getAllowDatabaseToOverwriteKeycloak(),
+                                    providerConfig.attributeSyncStats,
+                                    model.get("syncThreads", 4),
+                                    model.get("syncBatchSize", 500));
+    }
+    
     @Override
     public String getId() {
         return "singular-db-user-provider";
@@ -125,6 +281,48 @@ public class DBUserStorageProviderFactory implements UserStorageProviderFactory<
                                            .defaultValue(RDBMS.SQL_SERVER.getDesc())
                                            .add()
                                            .property()
+                                           .name("maximumPoolSize")
+                                           .label("Maximum pool size")
+                                           .helpText("Maximum number of JDBC connections kept by this provider. Changing the pool settings resizes the running pool.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("10")
+                                           .add()
+                                           .property()
+                                           .name("minimumIdle")
+                                           .label("Minimum idle connections")
+                                           .helpText("Minimum number of idle JDBC connections kept ready in the pool.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("10")
+                                           .add()
+                                           .property()
+                                           .name("connectionTimeout")
+                                           .label("Connection timeout (ms)")
+                                           .helpText("How long a query waits for a connection from the pool before failing.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("30000")
+                                           .add()
+                                           .property()
+                                           .name("maxLifetime")
+                                           .label("Connection max lifetime (ms)")
+                                           .helpText("Maximum lifetime of a pooled connection. Keep it a few seconds shorter than any connection time limit imposed by the database or the network.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("1800000")
+                                           .add()
+                                           .property()
+                                           .name("leakDetectionThreshold")
+                                           .label("Connection leak detection threshold (ms)")
+                                           .helpText("Logs a warning when a connection is out of the pool for longer than this. 0 disables leak detection.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("0")
+                                           .add()
+                                           .property()
+                                           .name("queryThreads")
+                                           .label("Background query threads")
+                                           .helpText("Number of threads running queries in the background, e.g. the user count of a listing while its page is read. Each one may hold a pool connection. 0 runs every query on the request thread.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("2")
+                                           .add()
+                                           .property()
                                            .name("allowKeycloakDelete")
                                            .label("Allow Keycloak's User Delete")
                                            .helpText("By default, clicking Delete on a user in Keycloak is not allowed.  Activate this option to allow to Delete Keycloak's version of the user (does not touch the user record in the linked RDBMS), e.g. to clear synching issues and allow the user to be synced from scratch from the RDBMS on next use, in Production or for testing.")
@@ -135,10 +333,113 @@ public class DBUserStorageProviderFactory implements UserStorageProviderFactory<
                                            .name("allowDatabaseToOverwriteKeycloak")
                                            .label("Allow DB Attributes to Overwrite Keycloak")
                                            // Technical details for the following comment: we aggregate both the existing Keycloak version and the DB version of an attribute in a Set, but since e.g. email is not a list of values on the Keycloak User, the new email is never set on it.
-                                           .helpText("By default, once a user is loaded in Keycloak, its attributes (e.g. 'email') stay as they are in Keycloak even if an attribute of the same name now returns a different value through the query.  Activate this option to have all attributes set in the SQL query to always overwrite the existing user attributes in Keycloak (e.g. if Keycloak user has email 'test@test.com' but the query fetches a field named 'email' that has a value 'example@exemple.com', the Keycloak user will now have email attribute = 'example@exemple.com'). This behavior works with NO_CAHCE configuration. In case you set this flag under a cached configuration, the user attributes will be reload if: 1) the cached value is older than 500ms and 2) username or e-mail does not match cached values.")
+                                           .helpText("By default, once a user is loaded in Keycloak, its attributes (e.g. 'email') stay as they are in Keycloak even if an attribute of the same name now returns a different value through the query.  Activate this option to have all attributes set in the SQL query to always overwrite the existing user attributes in Keycloak (e.g. if Keycloak user has email 'test@test.com' but the query fetches a field named 'email' that has a value 'example@exemple.com', the Keycloak user will now have email attribute = 'example@exemple.com'). This behavior works with NO_CAHCE configuration. In case you set this flag under a cached configuration, the user attributes will be reload if: 1) the cached value is older than the user freshness window and 2) the version query (when set) returns a different version and 3) username or e-mail does not match cached values.")
                                            .type(ProviderConfigProperty.BOOLEAN_TYPE)
                                            .defaultValue("false")
                                            .add()
+                                           .property()
+                                           .name("userFreshnessWindow")
+                                           .label("User freshness window (ms)")
+                                           .helpText("With 'Allow DB Attributes to Overwrite Keycloak' under a cached configuration, a cached user older than this is checked against the database before its password is validated.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("500")
+                                           .add()
+                                           .property()
+                                           .name("lazyListingAttributes")
+                                           .label("Lazy attributes on user listings")
+                                           .helpText("By default, every user returned by a listing or search is merged into Keycloak's federated attributes as soon as it is loaded. Activate this option to serve listings and searches from the query columns only; Keycloak's stored attributes are loaded (and the query columns merged into them) the first time an attribute not returned by the query is read or any attribute is changed.")
+                                           .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                                           .defaultValue("false")
+                                           .add()
+                                           .property()
+                                           .name("streamSearchResults")
+                                           .label("Stream user listings")
+                                           .helpText("By default, the rows of a listing or search are all read into memory before they are returned to Keycloak. Activate this option to read them from the open result set as Keycloak consumes them.")
+                                           .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                                           .defaultValue("false")
+                                           .add()
+                                           .property()
+                                           .name("fetchSize")
+                                           .label("JDBC fetch size")
+                                           .helpText("Number of rows the JDBC driver fetches per round trip. 0 keeps the driver default.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("0")
+                                           .add()
+                                           .property()
+                                           .name("maxResultRows")
+                                           .label("Maximum rows per query")
+                                           .helpText("Hard limit on the number of rows any query may return, so that a single search cannot exhaust the heap. 0 means no limit.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("10000")
+                                           .add()
+                                           .property()
+                                           .name("keysetColumn")
+                                           .label("Keyset pagination column (optional)")
+                                           .helpText("Optional. Indexed, unique column (e.g. \"id\") returned by the list all and search queries. When set, listings are ordered by this column and the next page is read with \"where column > last key\" instead of an OFFSET. Not used when user listings are streamed.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .add()
+        
+                                           //CACHE
+        
+                                           .property()
+                                           .name("lookupCacheMaxSize")
+                                           .label("Lookup cache size")
+                                           .helpText("Maximum number of lookups (by id, username or email) kept in memory by this provider. 0 disables the cache.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("0")
+                                           .add()
+                                           .property()
+                                           .name("lookupCacheTtl")
+                                           .label("Lookup cache TTL (seconds)")
+                                           .helpText("How long a user found by id, username or email is served from the lookup cache before the database is queried again.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("30")
+                                           .add()
+                                           .property()
+                                           .name("lookupCacheNegativeTtl")
+                                           .label("Lookup cache negative TTL (seconds)")
+                                           .helpText("How long a lookup that found no user is remembered. Keep it short so that users created in the database are found quickly.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("5")
+                                           .add()
+                                           .property()
+                                           .name("countCacheTtl")
+                                           .label("User count cache TTL (seconds)")
+                                           .helpText("How long the total user count and the count of each search term are served from memory before the database is queried again. 0 disables the cache.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("30")
+                                           .add()
+                                           .property()
+                                           .name("prefetchSearchCount")
+                                           .label("Prefetch search counts")
+                                           .helpText("Start counting the users of a listing or search in the background while its page is read, as the admin console asks for that count right after the page. Only used when the user count cache is enabled. Every search then costs a count query, even when nobody asks for the count.")
+                                           .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                                           .defaultValue("false")
+                                           .add()
+                                           .property()
+                                           .name("changePollInterval")
+                                           .label("Changed users poll interval (seconds)")
+                                           .helpText("How often the changed users query (when set) is run to evict the users it returns from Keycloak's user cache and from the lookup cache.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("30")
+                                           .add()
+        
+                                           //SYNC
+        
+                                           .property()
+                                           .name("syncThreads")
+                                           .label("Synchronization threads")
+                                           .helpText("Number of threads writing users to Keycloak during a user synchronization (requires 'Import users').")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("4")
+                                           .add()
+                                           .property()
+                                           .name("syncBatchSize")
+                                           .label("Synchronization batch size")
+                                           .helpText("Number of users written per transaction during a user synchronization.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("500")
+                                           .add()
         
                                            //QUERIES
         
@@ -149,6 +450,13 @@ public class DBUserStorageProviderFactory implements UserStorageProviderFactory<
                                            .type(ProviderConfigProperty.STRING_TYPE)
                                            .defaultValue("select count(*) from users")
                                            .add()
+                                           .property()
+                                           .name("estimatedCountTable")
+                                           .label("Estimated user count table (optional)")
+                                           .helpText("Optional. Table (e.g. \"users\" or \"schema.users\" on PostgreSQL and SQL Server) whose row count is read from the database statistics instead of running the user count query. " +
+                                                     "The estimate is as fresh as the last ANALYZE; the user count query is still used while the table has no statistics.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .add()
         
                                            .property()
                                            .name("listAll")
@@ -219,6 +527,12 @@ public class DBUserStorageProviderFactory implements UserStorageProviderFactory<
                                                          "            \"cpf\"," +
                                                          "            \"fullName\" from users where upper(\"username\") like (?)  or upper(\"email\") like (?) or upper(\"fullName\") like (?)")
                                            .add()
+                                           .property()
+                                           .name("countBySearchTerm")
+                                           .label("Count users by search term SQL query (optional)")
+                                           .helpText("Optional. SQL query returning the count of users matching the search term. Leave empty to count the rows of the find user by search term query." + String.format(PARAMETER_HELP, "search term") + PARAMETER_PLACEHOLDER_HELP)
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .add()
         
                                            .property()
                                            .name("findPasswordHash")
@@ -228,19 +542,85 @@ public class DBUserStorageProviderFactory implements UserStorageProviderFactory<
                                            .defaultValue("select hash_pwd from users where \"username\" = ? ")
                                            .add()
                                            .property()
+                                           .name("findUserWithPasswordHash")
+                                           .label("Find user with password hash SQL query (optional)")
+                                           .helpText("Optional. Same as the find user by username query, but also returning the password hash column, so that a password login needs a single query. " +
+                                                     "Leave empty to use the two queries above." + String.format(PARAMETER_HELP, "user username") + PARAMETER_PLACEHOLDER_HELP)
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .add()
+                                           .property()
+                                           .name("findChangedSince")
+                                           .label("Find users changed since SQL query (optional)")
+                                           .helpText("Optional. SQL query returning the \"id\", \"username\" and \"email\" of the users changed since a timestamp, e.g. select \"id\", \"username\", \"email\" from users where updated_at > ?. " +
+                                                     "When set, it is polled and the users it returns are evicted from Keycloak's user cache, so that cached users reflect database changes within a poll interval. " +
+                                                     "Periodic changed users syncs also merge only the users it returns; return the columns of the list all query to sync all their attributes." + String.format(PARAMETER_HELP, "timestamp of the previous poll or sync") + PARAMETER_PLACEHOLDER_HELP)
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .add()
+                                           .property()
+                                           .name("findVersionById")
+                                           .label("Find user version by id SQL query (optional)")
+                                           .helpText("Optional. SQL query returning a single value that changes whenever the user row changes (e.g. a row version or last modification column). " +
+                                                     "When set, a cached user older than the freshness window is only reloaded when this value differs from the one read when it was cached." + String.format(PARAMETER_HELP, "user id") + PARAMETER_PLACEHOLDER_HELP)
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .add()
+                                           .property()
+                                           .name("passwordHashColumn")
+                                           .label("Password hash column")
+                                           .helpText("Name (or alias) of the password hash column returned by the find user with password hash query, matched ignoring case. It is never stored as a user attribute.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("hash_pwd")
+                                           .add()
+                                           .property()
                                            .name("hashFunction")
                                            .label("Password hash function")
-                                           .helpText("Hash type used to match passwrod (md* e sha* uses hex hash digest)")
+                                           .helpText("Hash type used to match passwrod (md* e sha* uses hex hash digest, the built-in bcrypt also accepts $2b$, $2x$ and $2y$ hashes)")
                                            .type(ProviderConfigProperty.LIST_TYPE)
-                                           .options("Blowfish (bcrypt)", "MD2", "MD5", "SHA-1", "SHA-256", "SHA3-224", "SHA3-256", "SHA3-384", "SHA3-512", "SHA-384", "SHA-512/224", "SHA-512/256", "SHA-512", "PBKDF2-SHA256", "Argon2d", "Argon2i", "Argon2id")
+                                           .options("Blowfish (bcrypt)", "Blowfish (bcrypt, built-in)", "MD2", "MD5", "SHA-1", "SHA-256", "SHA3-224", "SHA3-256", "SHA3-384", "SHA3-512", "SHA-384", "SHA-512/224", "SHA-512/256", "SHA-512", "PBKDF2-SHA256", "Argon2d", "Argon2i", "Argon2id")
                                            .defaultValue("SHA-1")
                                            .add()
+                                           .property()
+                                           .name("passwordVerificationThreads")
+                                           .label("Password verification threads")
+                                           .helpText("Number of dedicated threads verifying password hashes, so that slow hash functions cannot use up Keycloak's request threads during a login storm. 0 verifies on the request thread.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("0")
+                                           .add()
+                                           .property()
+                                           .name("passwordVerificationQueueSize")
+                                           .label("Password verification queue size")
+                                           .helpText("Number of logins allowed to wait for a password verification thread. When the queue is full, new logins fail immediately.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("100")
+                                           .add()
+                                           //LOGGING
+                                           .property()
+                                           .name("slowQueryThreshold")
+                                           .label("Slow query threshold (ms)")
+                                           .helpText("Queries taking at least this long are logged at WARN, without their parameters. 0 disables the slow query log.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("1000")
+                                           .add()
+                                           .property()
+                                           .name("queryLogSampleRate")
+                                           .label("Query log sample rate")
+                                           .helpText("With DEBUG logging enabled, one query in this many is logged with its parameters.")
+                                           .type(ProviderConfigProperty.STRING_TYPE)
+                                           .defaultValue("100")
+                                           .add()
                                            .build();
     }
     
     private static class ProviderConfig {
-        private DataSourceProvider  dataSourceProvider = new DataSourceProvider();
-        private QueryConfigurations queryConfigurations;
+        private DataSourceProvider           dataSourceProvider = new DataSourceProvider();
+        private QueryConfigurations          queryConfigurations;
+        private UserLookupCache              userLookupCache;
+        private UserCountCache               userCountCache;
+        private QueryExecutor                queryExecutor;
+        private ScheduledFuture<?>           changePoll;
+        private AttributeSyncStats           attributeSyncStats = new AttributeSyncStats();
+        private UserRepository               userRepository;
+        private PasswordVerificationExecutor passwordVerificationExecutor;
+        private ProviderMetrics              metrics;
     }
     
     
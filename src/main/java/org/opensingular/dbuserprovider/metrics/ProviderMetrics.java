@@ -0,0 +1,157 @@
+package org.opensingular.dbuserprovider.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.opensingular.dbuserprovider.model.AttributeSyncStats;
+import org.opensingular.dbuserprovider.password.Argon2MemoryBudget;
+import org.opensingular.dbuserprovider.password.PasswordVerificationExecutor;
+import org.opensingular.dbuserprovider.persistence.DataSourceProvider;
+import org.opensingular.dbuserprovider.persistence.UserLookupCache;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Micrometer meters of one component, all tagged with its id:
+ * <ul>
+ *     <li>{@code singular.user.provider.query} / {@code .query.rows}: time and rows returned per query kind</li>
+ *     <li>{@code singular.user.provider.connection.acquire}: time spent waiting for a pooled connection</li>
+ *     <li>{@code singular.user.provider.pool.connections}: active, idle, pending and total connections of the pool</li>
+ *     <li>{@code singular.user.provider.password.verify}: password verification time per hash algorithm,
+ *     including the time queued for a verification thread</li>
+ *     <li>lookup cache, attribute sync and verification pool counters</li>
+ * </ul>
+ * Keycloak exposes the global registry on its metrics endpoint (with {@code metrics-enabled}); other registries, such
+ * as a {@code SimpleMeterRegistry}, can be passed in to read the meters in process. {@link #close()} removes the meters,
+ * so a reconfigured component starts over with fresh ones.
+ */
+public class ProviderMetrics implements Closeable {
+
+    private static final String PREFIX = "singular.user.provider.";
+
+    private final MeterRegistry                       registry;
+    private final Tags                                tags;
+    private final List<Meter>                         meters       = new ArrayList<>();
+    private final Map<QueryKind, Timer>               queryTimers  = new EnumMap<>(QueryKind.class);
+    private final Map<QueryKind, DistributionSummary> queryRows    = new EnumMap<>(QueryKind.class);
+    private final Timer                               connectionAcquire;
+    private final Map<String, Timer>                  verifyTimers = new ConcurrentHashMap<>();
+
+    public ProviderMetrics(String componentId, MeterRegistry registry) {
+        this.registry = registry;
+        this.tags = Tags.of("component", componentId);
+        for (QueryKind kind : QueryKind.values()) {
+            Tags kindTags = tags.and("kind", kind.getTag());
+            queryTimers.put(kind, register(Timer.builder(PREFIX + "query")
+                                                .description("Time to run a query and read its rows")
+                                                .tags(kindTags)
+                                                .publishPercentileHistogram()
+                                                .register(registry)));
+            queryRows.put(kind, register(DistributionSummary.builder(PREFIX + "query.rows")
+                                                            .description("Rows returned by a query")
+                                                            .tags(kindTags)
+                                                            .publishPercentileHistogram()
+                                                            .register(registry)));
+        }
+        connectionAcquire = register(Timer.builder(PREFIX + "connection.acquire")
+                                          .description("Time spent waiting for a pooled connection")
+                                          .tags(tags)
+                                          .publishPercentileHistogram()
+                                          .register(registry));
+    }
+
+    private <M extends Meter> M register(M meter) {
+        synchronized (meters) {
+            meters.add(meter);
+        }
+        return meter;
+    }
+
+    private <T> void gauge(String name, String description, Tags gaugeTags, T object, ToDoubleFunction<T> value) {
+        register(Gauge.builder(PREFIX + name, object, value).description(description).tags(gaugeTags).register(registry));
+    }
+
+    private <T> void counter(String name, String description, Tags counterTags, T object, ToDoubleFunction<T> value) {
+        register(FunctionCounter.builder(PREFIX + name, object, value).description(description).tags(counterTags).register(registry));
+    }
+
+    public void bindPool(DataSourceProvider dataSourceProvider) {
+        gauge("pool.connections", "Connections in use", tags.and("state", "active"), dataSourceProvider, DataSourceProvider::getActiveConnections);
+        gauge("pool.connections", "Idle connections", tags.and("state", "idle"), dataSourceProvider, DataSourceProvider::getIdleConnections);
+        gauge("pool.connections", "Threads waiting for a connection", tags.and("state", "pending"), dataSourceProvider, DataSourceProvider::getPendingThreads);
+        gauge("pool.connections", "Open connections", tags.and("state", "total"), dataSourceProvider, DataSourceProvider::getTotalConnections);
+    }
+
+    public void bindLookupCache(UserLookupCache userLookupCache) {
+        counter("lookup.cache", "Lookups answered from the cache", tags.and("result", "hit"), userLookupCache, UserLookupCache::getHitCount);
+        counter("lookup.cache", "Lookups answered from the negative cache", tags.and("result", "negativeHit"), userLookupCache, UserLookupCache::getNegativeHitCount);
+        counter("lookup.cache", "Lookups sent to the database", tags.and("result", "miss"), userLookupCache, UserLookupCache::getMissCount);
+        gauge("lookup.cache.size", "Users in the lookup cache", tags, userLookupCache, UserLookupCache::size);
+    }
+
+    public void bindAttributeSync(AttributeSyncStats attributeSyncStats) {
+        counter("attributes.sync", "Attributes written to federated storage", tags.and("result", "written"), attributeSyncStats, AttributeSyncStats::getWritten);
+        counter("attributes.sync", "Attributes already up to date in federated storage", tags.and("result", "skipped"), attributeSyncStats, AttributeSyncStats::getSkipped);
+    }
+
+    public void bindPasswordVerification(PasswordVerificationExecutor executor) {
+        gauge("password.queue", "Password verifications waiting for a thread", tags, executor, PasswordVerificationExecutor::getQueueDepth);
+        counter("password.rejected", "Password verifications rejected because the queue was full", tags, executor,
+                e -> e.getStats().values().stream().mapToLong(PasswordVerificationExecutor.VerificationStats::getRejected).sum());
+    }
+
+    /**
+     * Meters of the process wide Argon2 memory budget, registered once (not per component).
+     */
+    public static void bindArgon2Budget(MeterRegistry registry) {
+        // the budget can be replaced, so every meter reads the current one
+        Gauge.builder(PREFIX + "argon2.memory", () -> Argon2MemoryBudget.get().getBudgetKib() * 1024)
+             .description("Argon2 memory budget").tag("state", "budget").baseUnit("bytes").register(registry);
+        Gauge.builder(PREFIX + "argon2.memory", () -> Argon2MemoryBudget.get().getReservedKib() * 1024)
+             .description("Argon2 memory reserved by running verifications").tag("state", "reserved").baseUnit("bytes").register(registry);
+        FunctionCounter.builder(PREFIX + "argon2.waited", Argon2MemoryBudget.class, c -> Argon2MemoryBudget.get().getWaited())
+                       .description("Argon2 verifications that waited for memory").register(registry);
+        FunctionCounter.builder(PREFIX + "argon2.rejected", Argon2MemoryBudget.class, c -> Argon2MemoryBudget.get().getRejected())
+                       .description("Argon2 verifications rejected because the memory budget was exhausted").register(registry);
+    }
+
+    public void recordQuery(QueryKind kind, long nanos, int rows) {
+        queryTimers.get(kind).record(nanos, TimeUnit.NANOSECONDS);
+        if (rows >= 0) {
+            queryRows.get(kind).record(rows);
+        }
+    }
+
+    public void recordConnectionAcquire(long nanos) {
+        connectionAcquire.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordPasswordVerification(String algorithm, long nanos) {
+        verifyTimers.computeIfAbsent(algorithm, a -> register(Timer.builder(PREFIX + "password.verify")
+                                                                   .description("Time to verify a password, including the time queued")
+                                                                   .tags(tags.and(Tag.of("algorithm", a)))
+                                                                   .publishPercentileHistogram()
+                                                                   .register(registry)))
+                    .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void close() {
+        synchronized (meters) {
+            meters.forEach(registry::remove);
+            meters.clear();
+        }
+    }
+}
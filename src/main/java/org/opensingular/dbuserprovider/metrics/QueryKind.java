@@ -0,0 +1,27 @@
+package org.opensingular.dbuserprovider.metrics;
+
+/**
+ * The kinds of queries the provider runs, used to tag query metrics.
+ */
+public enum QueryKind {
+    FIND_BY_ID("findById"),
+    FIND_BY_USERNAME("findByUsername"),
+    FIND_BY_EMAIL("findByEmail"),
+    FIND_VERSION_BY_ID("findVersionById"),
+    SEARCH("search"),
+    SYNC("sync"),
+    CHANGED_SINCE("changedSince"),
+    COUNT("count"),
+    ESTIMATED_COUNT("estimatedCount"),
+    PASSWORD_HASH("passwordHash");
+
+    private final String tag;
+
+    QueryKind(String tag) {
+        this.tag = tag;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+}
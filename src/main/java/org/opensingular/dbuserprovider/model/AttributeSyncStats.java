@@ -0,0 +1,26 @@
+package org.opensingular.dbuserprovider.model;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts, per component, how many database attributes were written to Keycloak's federated storage
+ * and how many were skipped because the stored value was already up to date.
+ */
+public class AttributeSyncStats {
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    void record(int writtenCount, int skippedCount) {
+        written.add(writtenCount);
+        skipped.add(skippedCount);
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getSkipped() {
+        return skipped.sum();
+    }
+}
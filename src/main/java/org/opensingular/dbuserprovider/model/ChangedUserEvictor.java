@@ -0,0 +1,96 @@
+package org.opensingular.dbuserprovider.model;
+
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.cache.UserCache;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.storage.StorageId;
+import org.keycloak.storage.UserStorageUtil;
+import org.keycloak.storage.adapter.InMemoryUserAdapter;
+import org.opensingular.dbuserprovider.persistence.UserCountCache;
+import org.opensingular.dbuserprovider.persistence.UserLookupCache;
+import org.opensingular.dbuserprovider.persistence.UserRepository;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Polls the changed since query of a component and evicts the users it returns from Keycloak's user cache and from the
+ * provider's lookup cache, so that cached users can live long and still reflect database changes within a poll.
+ * Each poll asks for the rows changed since the previous one, minus one poll interval to absorb clock differences
+ * between Keycloak and the database (evicting a user twice is harmless).
+ */
+@JBossLog
+public class ChangedUserEvictor implements Runnable {
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final ComponentModel         model;
+    private final UserRepository         repository;
+    private final UserLookupCache        userLookupCache;
+    private final UserCountCache         userCountCache;
+    private final long                   overlapMillis;
+    // only read and written by the scheduled poll, which never runs concurrently with itself
+    private       long                   lastPoll;
+
+    public ChangedUserEvictor(KeycloakSessionFactory sessionFactory, ComponentModel model, UserRepository repository, UserLookupCache userLookupCache, UserCountCache userCountCache, long intervalMillis) {
+        this.sessionFactory = sessionFactory;
+        this.model = model;
+        this.repository = repository;
+        this.userLookupCache = userLookupCache;
+        this.userCountCache = userCountCache;
+        this.overlapMillis = intervalMillis;
+        this.lastPoll = System.currentTimeMillis();
+    }
+
+    @Override
+    public void run() {
+        long      pollStart = System.currentTimeMillis();
+        Timestamp since     = new Timestamp(lastPoll - overlapMillis);
+        try {
+            int evicted = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> evict(session, since));
+            lastPoll = pollStart;
+            if (evicted > 0) {
+                log.debugv("Evicted {0} users of {1} changed since {2}", evicted, model.getName(), since);
+            }
+        } catch (Exception e) {
+            // an exception would cancel the next polls; the next poll reads the same changes again
+            log.errorv(e, "Could not poll the users of {0} changed since {1}", model.getName(), since);
+        }
+    }
+
+    private int evict(KeycloakSession session, Timestamp since) {
+        RealmModel                realm     = session.realms().getRealm(model.getParentId());
+        UserCache                 userCache = UserStorageUtil.userCache(session);
+        List<Map<String, String>> changed;
+        try (Stream<Map<String, String>> users = repository.streamUsersChangedSince(since)) {
+            changed = users.collect(Collectors.toList());
+        }
+        if (changed.isEmpty()) {
+            return 0;
+        }
+        userLookupCache.invalidate(changed);
+        userCountCache.invalidateAll();
+        if (userCache != null && realm != null) {
+            for (Map<String, String> user : changed) {
+                userCache.evict(realm, cachedUser(session, realm, user));
+            }
+        }
+        return changed.size();
+    }
+
+    /**
+     * The keys Keycloak caches the user under (id, username and email), without loading the user.
+     */
+    private InMemoryUserAdapter cachedUser(KeycloakSession session, RealmModel realm, Map<String, String> user) {
+        InMemoryUserAdapter cached = new InMemoryUserAdapter(session, realm, StorageId.keycloakId(model, user.get("id")));
+        cached.setUsername(user.get("username"));
+        cached.setEmail(user.get("email"));
+        return cached;
+    }
+}
@@ -1,35 +1,68 @@
 package org.opensingular.dbuserprovider.model;
 
+import org.apache.commons.lang3.StringUtils;
+import org.opensingular.dbuserprovider.password.PasswordVerifier;
+import org.opensingular.dbuserprovider.password.PasswordVerifiers;
 import org.opensingular.dbuserprovider.persistence.RDBMS;
 
 public class QueryConfigurations {
 
     private final String count;
+    private final String estimatedCountTable;
     private final String listAll;
     private final String findById;
     private final String findByUsername;
     private final String findByEmail;
     private final String findBySearchTerm;
     private final int findBySearchTermParamsCount;
+    private final String countBySearchTerm;
+    private final int countBySearchTermParamsCount;
     private final String findPasswordHash;
+    private final String findUserWithPasswordHash;
+    private final String findChangedSince;
+    private final String findVersionById;
+    private final String passwordHashColumn;
     private final String hashFunction;
+    private final PasswordVerifier passwordVerifier;
     private final RDBMS  RDBMS;
     private final boolean allowKeycloakDelete;
     private final boolean allowDatabaseToOverwriteKeycloak;
-
-    public QueryConfigurations(String count, String listAll, String findById, String findByUsername, String findByEmail, String findBySearchTerm, String findPasswordHash, String hashFunction, RDBMS RDBMS, boolean allowKeycloakDelete, boolean allowDatabaseToOverwriteKeycloak) {
+    private final long    userFreshnessWindow;
+    private final boolean lazyListingAttributes;
+    private final boolean streamSearchResults;
+    private final int     fetchSize;
+    private final int     maxResultRows;
+    private final String  keysetColumn;
+    private final boolean prefetchSearchCount;
+
+    public QueryConfigurations(String count, String estimatedCountTable, String listAll, String findById, String findByUsername, String findByEmail, String findBySearchTerm, String countBySearchTerm, String findPasswordHash, String findUserWithPasswordHash, String findChangedSince, String findVersionById, String passwordHashColumn, String hashFunction, RDBMS RDBMS, boolean allowKeycloakDelete, boolean allowDatabaseToOverwriteKeycloak, long userFreshnessWindow, boolean lazyListingAttributes, boolean streamSearchResults, int fetchSize, int maxResultRows, String keysetColumn, boolean prefetchSearchCount) {
         this.count = count;
+        this.estimatedCountTable = StringUtils.trimToNull(estimatedCountTable);
         this.listAll = listAll;
         this.findById = findById;
         this.findByUsername = findByUsername;
         this.findByEmail = findByEmail;
         this.findBySearchTerm = findBySearchTerm;
         this.findBySearchTermParamsCount = (int)findBySearchTerm.chars().filter(ch -> ch == '?').count();
+        this.countBySearchTerm = StringUtils.trimToNull(countBySearchTerm);
+        this.countBySearchTermParamsCount = this.countBySearchTerm == null ? 0 : (int)this.countBySearchTerm.chars().filter(ch -> ch == '?').count();
         this.findPasswordHash = findPasswordHash;
+        this.findUserWithPasswordHash = StringUtils.trimToNull(findUserWithPasswordHash);
+        this.findChangedSince = StringUtils.trimToNull(findChangedSince);
+        this.findVersionById = StringUtils.trimToNull(findVersionById);
+        this.passwordHashColumn = passwordHashColumn;
         this.hashFunction = hashFunction;
+        this.passwordVerifier = PasswordVerifiers.resolve(hashFunction);
         this.RDBMS = RDBMS;
         this.allowKeycloakDelete = allowKeycloakDelete;
         this.allowDatabaseToOverwriteKeycloak = allowDatabaseToOverwriteKeycloak;
+        this.userFreshnessWindow = userFreshnessWindow;
+        this.lazyListingAttributes = lazyListingAttributes;
+        this.streamSearchResults = streamSearchResults;
+        this.fetchSize = fetchSize;
+        this.maxResultRows = maxResultRows;
+        this.keysetColumn = StringUtils.trimToNull(keysetColumn);
+        this.prefetchSearchCount = prefetchSearchCount;
     }
 
     public RDBMS getRDBMS() {
@@ -40,6 +73,14 @@ public class QueryConfigurations {
         return count;
     }
 
+    public String getEstimatedCountTable() {
+        return estimatedCountTable;
+    }
+
+    public boolean hasEstimatedCountTable() {
+        return estimatedCountTable != null;
+    }
+
     public String getListAll() {
         return listAll;
     }
@@ -64,20 +105,56 @@ public class QueryConfigurations {
         return findBySearchTermParamsCount;
     }
 
+    public String getCountBySearchTerm() {
+        return countBySearchTerm;
+    }
+
+    public boolean hasCountBySearchTerm() {
+        return countBySearchTerm != null;
+    }
+
+    public int getCountBySearchTermParamsCount() {
+        return countBySearchTermParamsCount;
+    }
+
     public String getFindPasswordHash() {
         return findPasswordHash;
     }
 
-    public String getHashFunction() {
-        return hashFunction;
+    public String getFindUserWithPasswordHash() {
+        return findUserWithPasswordHash;
+    }
+
+    public boolean hasFindUserWithPasswordHash() {
+        return findUserWithPasswordHash != null;
     }
 
-    public boolean isArgon2() {
-        return hashFunction.contains("Argon2");
+    public String getFindChangedSince() {
+        return findChangedSince;
     }
 
-    public boolean isBlowfish() {
-        return hashFunction.toLowerCase().contains("blowfish");
+    public boolean hasFindChangedSince() {
+        return findChangedSince != null;
+    }
+
+    public String getFindVersionById() {
+        return findVersionById;
+    }
+
+    public boolean hasFindVersionById() {
+        return findVersionById != null;
+    }
+
+    public String getPasswordHashColumn() {
+        return passwordHashColumn;
+    }
+
+    public String getHashFunction() {
+        return hashFunction;
+    }
+
+    public PasswordVerifier getPasswordVerifier() {
+        return passwordVerifier;
     }
 
     public boolean getAllowKeycloakDelete() {
@@ -87,4 +164,46 @@ public class QueryConfigurations {
     public boolean getAllowDatabaseToOverwriteKeycloak() {
         return allowDatabaseToOverwriteKeycloak;
     }
+
+    /**
+     * Age (ms) above which a cached user is checked against the database before its password is validated.
+     */
+    public long getUserFreshnessWindow() {
+        return userFreshnessWindow;
+    }
+
+    public boolean getLazyListingAttributes() {
+        return lazyListingAttributes;
+    }
+
+    public boolean getStreamSearchResults() {
+        return streamSearchResults;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public int getMaxResultRows() {
+        return maxResultRows;
+    }
+
+    public boolean getPrefetchSearchCount() {
+        return prefetchSearchCount;
+    }
+
+    public String getKeysetColumn() {
+        return keysetColumn;
+    }
+
+    public boolean hasKeysetColumn() {
+        return keysetColumn != null;
+    }
+
+    /**
+     * Key column without identifier quotes, as returned by the JDBC column label.
+     */
+    public String getKeysetColumnLabel() {
+        return keysetColumn == null ? null : StringUtils.strip(keysetColumn, "\"`[]");
+    }
 }
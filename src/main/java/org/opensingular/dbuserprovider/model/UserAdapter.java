@@ -2,46 +2,104 @@ package org.opensingular.dbuserprovider.model;
 
 import lombok.extern.jbosslog.JBossLog;
 import org.apache.commons.lang3.StringUtils;
+import org.keycloak.common.util.MultivaluedHashMap;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
 import org.keycloak.storage.StorageId;
 import org.keycloak.storage.adapter.AbstractUserAdapterFederatedStorage;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Federated user backed by a database row. The row is merged into Keycloak's federated attributes either on construction
+ * or, for lazy adapters (used for listings), on the first access that needs an attribute the row does not have.
+ * Lazy adapters also keep the federated attributes they loaded, so each adapter reads federated storage at most once.
+ * Only attributes the row has are answered without federated storage: the enabled, email verified and created
+ * timestamp attributes shown for every user of a listing load the federated attributes, since they may be stored there.
+ */
 @JBossLog
 public class UserAdapter extends AbstractUserAdapterFederatedStorage {
 
-    private final String keycloakId;
-    private       String username;
+    private final String              keycloakId;
+    private       String              username;
+    private final Map<String, String> data;
+    private final boolean             allowDatabaseToOverwriteKeycloak;
+    private final AttributeSyncStats  syncStats;
+    private final boolean             lazy;
+    // federated attributes as stored (mapped names), loaded once the row has been merged
+    private MultivaluedHashMap<String, String> federatedAttributes;
 
-    public UserAdapter(KeycloakSession session, RealmModel realm, ComponentModel model, Map<String, String> data, boolean allowDatabaseToOverwriteKeycloak) {
+    public UserAdapter(KeycloakSession session, RealmModel realm, ComponentModel model, Map<String, String> data, boolean allowDatabaseToOverwriteKeycloak, AttributeSyncStats syncStats) {
+        this(session, realm, model, data, allowDatabaseToOverwriteKeycloak, syncStats, false);
+    }
+
+    public UserAdapter(KeycloakSession session, RealmModel realm, ComponentModel model, Map<String, String> data, boolean allowDatabaseToOverwriteKeycloak, AttributeSyncStats syncStats, boolean lazy) {
         super(session, realm, model);
         this.keycloakId = StorageId.keycloakId(model, data.get("id"));
         this.username = data.get("username");
+        this.data = data;
+        this.allowDatabaseToOverwriteKeycloak = allowDatabaseToOverwriteKeycloak;
+        this.syncStats = syncStats;
+        this.lazy = lazy;
+        if (!lazy) {
+            loadFederatedAttributes();
+        }
+    }
+
+    private MultivaluedHashMap<String, String> loadFederatedAttributes() {
+        if (federatedAttributes != null) {
+            return federatedAttributes;
+        }
+        federatedAttributes = new MultivaluedHashMap<>();
         try {
-          Map<String, List<String>> attributes = this.getAttributes();
+          MultivaluedHashMap<String, String> stored = getFederatedStorage().getAttributes(realm, keycloakId);
+          if (stored != null) {
+              federatedAttributes.putAll(stored);
+          }
+          Map<String, List<String>> changed = new LinkedHashMap<>();
           for (Entry<String, String> e : data.entrySet()) {
               Set<String>  newValues = new HashSet<>();
-              if (!allowDatabaseToOverwriteKeycloak) {
-                List<String> attribute = attributes.get(e.getKey());
-                if (attribute != null) {
-                    newValues.addAll(attribute);
-                }
+              List<String> attribute = UserModel.USERNAME.equals(e.getKey()) ? Collections.singletonList(username) : federatedAttributes.get(mapAttribute(e.getKey()));
+              if (!allowDatabaseToOverwriteKeycloak && attribute != null) {
+                  newValues.addAll(attribute);
               }
               newValues.add(StringUtils.trimToNull(e.getValue()));
-              this.setAttribute(e.getKey(), newValues.stream().filter(Objects::nonNull).collect(Collectors.toList()));
+              List<String> values = newValues.stream().filter(Objects::nonNull).collect(Collectors.toList());
+              if (!sameValues(attribute, values)) {
+                  changed.put(e.getKey(), values);
+              }
           }
+          // federated storage has no multi-attribute write, so all changes are applied together after a single read
+          changed.forEach(this::setAttribute);
+          syncStats.record(changed.size(), data.size() - changed.size());
         } catch(Exception e) {
-          log.errorv(e, "UserAdapter constructor, username={0}", this.username);
+          log.errorv(e, "UserAdapter attributes, username={0}", this.username);
         }
+        return federatedAttributes;
+    }
+
+    private static boolean sameValues(List<String> stored, List<String> values) {
+        if (stored == null) {
+            return values.isEmpty();
+        }
+        List<String> storedValues = stored.stream().filter(Objects::nonNull).collect(Collectors.toList());
+        return storedValues.size() == values.size() && new HashSet<>(storedValues).equals(new HashSet<>(values));
+    }
+
+    private boolean readFromRow(String name) {
+        return lazy && federatedAttributes == null && data.containsKey(name);
     }
 
 
@@ -60,5 +118,77 @@ public class UserAdapter extends AbstractUserAdapterFederatedStorage {
         this.username = username;
     }
 
+    @Override
+    public String getFirstAttribute(String name) {
+        if (!lazy || UserModel.USERNAME.equals(name)) {
+            return super.getFirstAttribute(name);
+        }
+        if (readFromRow(name)) {
+            return StringUtils.trimToNull(data.get(name));
+        }
+        return loadFederatedAttributes().getFirst(mapAttribute(name));
+    }
+
+    @Override
+    public Stream<String> getAttributeStream(String name) {
+        if (!lazy || UserModel.USERNAME.equals(name)) {
+            return super.getAttributeStream(name);
+        }
+        if (readFromRow(name)) {
+            return Stream.of(StringUtils.trimToNull(data.get(name))).filter(Objects::nonNull);
+        }
+        List<String> values = loadFederatedAttributes().get(mapAttribute(name));
+        return values == null ? Stream.empty() : values.stream();
+    }
+
+    @Override
+    public Map<String, List<String>> getAttributes() {
+        if (!lazy) {
+            return super.getAttributes();
+        }
+        MultivaluedHashMap<String, String> attributes = new MultivaluedHashMap<>();
+        loadFederatedAttributes().forEach((name, values) -> attributes.put(name, new ArrayList<>(values)));
+        attributes.add(UserModel.FIRST_NAME, first(attributes.remove(FIRST_NAME_ATTRIBUTE)));
+        attributes.add(UserModel.LAST_NAME, first(attributes.remove(LAST_NAME_ATTRIBUTE)));
+        attributes.add(UserModel.EMAIL, first(attributes.remove(EMAIL_ATTRIBUTE)));
+        attributes.add(UserModel.USERNAME, getUsername());
+        return attributes;
+    }
+
+    private static String first(List<String> values) {
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    @Override
+    public void setSingleAttribute(String name, String value) {
+        if (lazy && !UserModel.USERNAME.equals(name)) {
+            loadFederatedAttributes().putSingle(mapAttribute(name), value);
+        }
+        super.setSingleAttribute(name, value);
+    }
+
+    @Override
+    public void setAttribute(String name, List<String> values) {
+        if (lazy && !UserModel.USERNAME.equals(name)) {
+            if (values == null || values.isEmpty()) {
+                loadFederatedAttributes().remove(mapAttribute(name));
+            } else {
+                loadFederatedAttributes().put(mapAttribute(name), new ArrayList<>(values));
+            }
+        }
+        super.setAttribute(name, values);
+    }
+
+    /**
+     * Removes the attribute under the name it is stored with, as {@link #setAttribute(String, List)} writes it.
+     */
+    @Override
+    public void removeAttribute(String name) {
+        if (lazy) {
+            loadFederatedAttributes().remove(mapAttribute(name));
+        }
+        getFederatedStorage().removeAttribute(realm, getId(), mapAttribute(name));
+    }
+
 
 }
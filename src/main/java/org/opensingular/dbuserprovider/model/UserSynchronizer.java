@@ -0,0 +1,155 @@
+package org.opensingular.dbuserprovider.model;
+
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.storage.user.SynchronizationResult;
+import org.opensingular.dbuserprovider.DBUserStorageException;
+import org.opensingular.dbuserprovider.persistence.UserRepository;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Synchronization of a component: every user of the list all query (or, for a changed users sync, of the changed since
+ * query) is merged into Keycloak's federated attributes, as it would be on its first lookup. Users are read in a single
+ * streamed query and written by {@code threads} workers, {@code batchSize} users per transaction. When the users cannot
+ * be read, the synchronization fails with a {@link DBUserStorageException} instead of reporting no users.
+ */
+@JBossLog
+public class UserSynchronizer {
+
+    private static final int PROGRESS_BATCHES = 20;
+
+    private final UserRepository     repository;
+    private final boolean            allowDatabaseToOverwriteKeycloak;
+    private final AttributeSyncStats syncStats;
+    private final int                threads;
+    private final int                batchSize;
+
+    public UserSynchronizer(UserRepository repository, boolean allowDatabaseToOverwriteKeycloak, AttributeSyncStats syncStats, int threads, int batchSize) {
+        this.repository = repository;
+        this.allowDatabaseToOverwriteKeycloak = allowDatabaseToOverwriteKeycloak;
+        this.syncStats = syncStats;
+        this.threads = Math.max(threads, 1);
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    /**
+     * Adds the throughput of the synchronization to the status shown by the admin console.
+     */
+    static class Result extends SynchronizationResult {
+        private long usersPerSecond;
+
+        @Override
+        public String getStatus() {
+            return isIgnored() ? super.getStatus() : super.getStatus() + String.format(", %d users/s", usersPerSecond);
+        }
+    }
+
+    public SynchronizationResult sync(KeycloakSessionFactory sessionFactory, String realmId, ComponentModel model) {
+        log.infov("Synchronizing users of {0} with {1} threads, {2} users per transaction", model.getName(), threads, batchSize);
+        return sync(sessionFactory, realmId, model, () -> repository.streamAllUsers(batchSize));
+    }
+
+    /**
+     * Only merges the users of the changed since query, run with {@code since}.
+     */
+    public SynchronizationResult syncChangedSince(Timestamp since, KeycloakSessionFactory sessionFactory, String realmId, ComponentModel model) {
+        log.infov("Synchronizing users of {0} changed since {1} with {2} threads, {3} users per transaction", model.getName(), since, threads, batchSize);
+        return sync(sessionFactory, realmId, model, () -> repository.streamUsersChangedSince(since));
+    }
+
+    private SynchronizationResult sync(KeycloakSessionFactory sessionFactory, String realmId, ComponentModel model, Supplier<Stream<Map<String, String>>> query) {
+        long            start       = System.nanoTime();
+        AtomicInteger   synced      = new AtomicInteger();
+        AtomicInteger   failed      = new AtomicInteger();
+        AtomicInteger   batches     = new AtomicInteger();
+        AtomicInteger   threadCount = new AtomicInteger();
+        // at most two batches waiting per worker, so reading cannot run far ahead of writing
+        Semaphore       inFlight    = new Semaphore(threads * 2);
+        ExecutorService workers     = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "singular-user-provider-sync-" + model.getName() + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (Stream<Map<String, String>> users = query.get()) {
+            Iterator<Map<String, String>> rows  = users.iterator();
+            List<Map<String, String>>     batch = new ArrayList<>(batchSize);
+            while (rows.hasNext()) {
+                batch.add(rows.next());
+                if (batch.size() == batchSize || !rows.hasNext()) {
+                    List<Map<String, String>> chunk = batch;
+                    inFlight.acquire();
+                    workers.execute(() -> {
+                        try {
+                            write(sessionFactory, realmId, model, chunk, synced, failed);
+                            if (batches.incrementAndGet() % PROGRESS_BATCHES == 0) {
+                                log.infov("Synchronized {0} users of {1}, {2} users/s", synced.get(), model.getName(), perSecond(synced.get(), start));
+                            }
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DBUserStorageException(e.getMessage(), e);
+        } finally {
+            workers.shutdown();
+            awaitTermination(workers);
+        }
+        Result result = new Result();
+        result.setUpdated(synced.get());
+        result.setFailed(failed.get());
+        result.usersPerSecond = perSecond(synced.get(), start);
+        log.infov("Synchronized {0} users of {1} in {2} ms ({3} failed), {4} users/s", synced.get(), model.getName(),
+                  TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), failed.get(), result.usersPerSecond);
+        return result;
+    }
+
+    private void write(KeycloakSessionFactory sessionFactory, String realmId, ComponentModel model, List<Map<String, String>> users, AtomicInteger synced, AtomicInteger failed) {
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                RealmModel realm = session.realms().getRealm(realmId);
+                for (Map<String, String> user : users) {
+                    new UserAdapter(session, realm, model, user, allowDatabaseToOverwriteKeycloak, syncStats);
+                }
+            });
+            synced.addAndGet(users.size());
+        } catch (Exception e) {
+            log.errorv(e, "Could not synchronize {0} users of {1}", users.size(), model.getName());
+            failed.addAndGet(users.size());
+        }
+    }
+
+    private static void awaitTermination(ExecutorService workers) {
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.info("Waiting for the user synchronization to finish");
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long perSecond(long count, long start) {
+        long nanos = Math.max(System.nanoTime() - start, 1);
+        return count * TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+}
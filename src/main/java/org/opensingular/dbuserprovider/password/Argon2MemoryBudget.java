@@ -0,0 +1,113 @@
+package org.opensingular.dbuserprovider.password;
+
+import lombok.extern.jbosslog.JBossLog;
+import org.opensingular.dbuserprovider.DBUserStorageException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide budget of native memory for Argon2 verifications, shared by every component. Each verification reserves
+ * the memory cost of the hash (in KiB) before it runs and releases it when it is done. When the budget is exhausted,
+ * verifications wait up to the configured time for memory to be released and are then rejected with a
+ * {@link DBUserStorageException}. A single hash larger than the whole budget runs alone.
+ */
+@JBossLog
+public class Argon2MemoryBudget {
+
+    public static final long DEFAULT_BUDGET_MB   = 1024;
+    public static final long DEFAULT_WAIT_MILLIS = 10000;
+
+    private static volatile Argon2MemoryBudget instance = new Argon2MemoryBudget(DEFAULT_BUDGET_MB, DEFAULT_WAIT_MILLIS);
+
+    private final int        budgetKib;
+    private final long       waitMillis;
+    private final Semaphore  permits;
+    private final AtomicLong reservedKib = new AtomicLong();
+    private final AtomicLong peakKib     = new AtomicLong();
+    private final LongAdder  waited      = new LongAdder();
+    private final LongAdder  rejected    = new LongAdder();
+
+    private Argon2MemoryBudget(long budgetMb, long waitMillis) {
+        this.budgetKib = (int) Math.min(Integer.MAX_VALUE, Math.max(1, budgetMb) * 1024);
+        this.waitMillis = Math.max(0, waitMillis);
+        this.permits = new Semaphore(budgetKib, true);
+    }
+
+    /**
+     * Replaces the budget. Verifications already running release their memory to the budget they reserved it from.
+     */
+    public static void configure(long budgetMb, long waitMillis) {
+        log.infov("Argon2 memory budget: {0} MiB, waiting up to {1} ms", budgetMb, waitMillis);
+        instance = new Argon2MemoryBudget(budgetMb, waitMillis);
+    }
+
+    public static Argon2MemoryBudget get() {
+        return instance;
+    }
+
+    /**
+     * A reservation, released on {@link #close()}.
+     */
+    public final class Reservation implements AutoCloseable {
+        private final int kib;
+
+        private Reservation(int kib) {
+            this.kib = kib;
+        }
+
+        @Override
+        public void close() {
+            reservedKib.addAndGet(-kib);
+            permits.release(kib);
+        }
+    }
+
+    /**
+     * Reserves {@code memoryKib} of the budget, waiting for it if needed.
+     *
+     * @throws DBUserStorageException if the memory could not be reserved in time
+     */
+    public Reservation reserve(long memoryKib) {
+        int kib = (int) Math.max(1, Math.min(memoryKib, budgetKib));
+        if (!permits.tryAcquire(kib)) {
+            waited.increment();
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(kib, waitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DBUserStorageException(e.getMessage(), e);
+            }
+            if (!acquired) {
+                rejected.increment();
+                throw new DBUserStorageException("Argon2 memory budget exhausted, try again later", null);
+            }
+        }
+        long reserved = reservedKib.addAndGet(kib);
+        peakKib.accumulateAndGet(reserved, Math::max);
+        return new Reservation(kib);
+    }
+
+    public long getBudgetKib() {
+        return budgetKib;
+    }
+
+    public long getReservedKib() {
+        return reservedKib.get();
+    }
+
+    public long getPeakKib() {
+        return peakKib.get();
+    }
+
+    public long getWaited() {
+        return waited.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
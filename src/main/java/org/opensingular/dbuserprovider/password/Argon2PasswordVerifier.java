@@ -0,0 +1,77 @@
+package org.opensingular.dbuserprovider.password;
+
+import com.google.auto.service.AutoService;
+import com.google.common.collect.ImmutableMap;
+import de.mkammerer.argon2.Argon2;
+import de.mkammerer.argon2.Argon2Factory;
+import de.mkammerer.argon2.Argon2Factory.Argon2Types;
+
+import java.util.Map;
+
+/**
+ * "Argon2d", "Argon2i" and "Argon2id" encoded hashes, verified with argon2-jvm.
+ */
+public class Argon2PasswordVerifier implements PasswordVerifier {
+
+    private static final Map<String, Argon2Types> ARGON2TYPES = ImmutableMap.of(
+        "Argon2d", Argon2Types.ARGON2d,
+        "Argon2i", Argon2Types.ARGON2i,
+        "Argon2id", Argon2Types.ARGON2id
+    );
+
+    private final Argon2 argon2;
+
+    public Argon2PasswordVerifier(Argon2Types type) {
+        this.argon2 = Argon2Factory.create(type);
+    }
+
+    @Override
+    public boolean verify(String password, String hash) {
+        long memoryKib = memoryCost(hash);
+        if (memoryKib <= 0) {
+            return false;
+        }
+        try (Argon2MemoryBudget.Reservation ignored = Argon2MemoryBudget.get().reserve(memoryKib)) {
+            return argon2.verify(hash, password.toCharArray());
+        }
+    }
+
+    /**
+     * Reads the memory cost {@code m} (in KiB) from an encoded hash such as {@code $argon2id$v=19$m=65536,t=3,p=4$salt$hash}.
+     *
+     * @return the memory cost, or -1 if the hash is malformed
+     */
+    static long memoryCost(String hash) {
+        String[] components = hash.split("\\$");
+        for (String component : components) {
+            if (!component.startsWith("m=")) {
+                continue;
+            }
+            for (String parameter : component.split(",")) {
+                String[] keyValue = parameter.split("=", 2);
+                if (keyValue.length == 2 && "m".equals(keyValue[0])) {
+                    try {
+                        return Long.parseLong(keyValue[1]);
+                    } catch (NumberFormatException e) {
+                        return -1;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    @AutoService(PasswordVerifierFactory.class)
+    public static class Factory implements PasswordVerifierFactory {
+
+        @Override
+        public boolean supports(String hashFunction) {
+            return ARGON2TYPES.containsKey(hashFunction);
+        }
+
+        @Override
+        public PasswordVerifier create(String hashFunction) {
+            return new Argon2PasswordVerifier(ARGON2TYPES.get(hashFunction));
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.opensingular.dbuserprovider.password;
+
+import com.google.auto.service.AutoService;
+import org.mindrot.jbcrypt.BCrypt;
+
+/**
+ * "Blowfish (bcrypt)", verified with jBCrypt.
+ */
+public class BCryptPasswordVerifier implements PasswordVerifier {
+
+    @Override
+    public boolean verify(String password, String hash) {
+        return !hash.isEmpty() && BCrypt.checkpw(password, hash);
+    }
+
+    @AutoService(PasswordVerifierFactory.class)
+    public static class Factory implements PasswordVerifierFactory {
+
+        @Override
+        public boolean supports(String hashFunction) {
+            return hashFunction.toLowerCase().contains("blowfish") && !BuiltInBCryptPasswordVerifier.HASH_FUNCTION.equals(hashFunction);
+        }
+
+        @Override
+        public PasswordVerifier create(String hashFunction) {
+            return new BCryptPasswordVerifier();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.opensingular.dbuserprovider.password;
+
+import com.google.auto.service.AutoService;
+import org.opensingular.dbuserprovider.util.BCryptHashingUtil;
+
+/**
+ * "Blowfish (bcrypt, built-in)", verified with {@link BCryptHashingUtil}. Accepts $2a$, $2b$, $2x$ and $2y$ hashes.
+ */
+public class BuiltInBCryptPasswordVerifier implements PasswordVerifier {
+
+    static final String HASH_FUNCTION = "Blowfish (bcrypt, built-in)";
+
+    @Override
+    public boolean verify(String password, String hash) {
+        return BCryptHashingUtil.checkPassword(password, hash);
+    }
+
+    @AutoService(PasswordVerifierFactory.class)
+    public static class Factory implements PasswordVerifierFactory {
+
+        @Override
+        public boolean supports(String hashFunction) {
+            return HASH_FUNCTION.equals(hashFunction);
+        }
+
+        @Override
+        public PasswordVerifier create(String hashFunction) {
+            return new BuiltInBCryptPasswordVerifier();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.opensingular.dbuserprovider.password;
+
+import com.google.auto.service.AutoService;
+import org.apache.commons.codec.binary.StringUtils;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.security.MessageDigest;
+
+/**
+ * Message digests ("MD5", "SHA-256", ...) stored as lower case hex. The digest instance is kept per thread and the
+ * comparison with the stored hex string runs in constant time, without encoding the digest to a new string.
+ */
+public class DigestPasswordVerifier implements PasswordVerifier {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ThreadLocal<MessageDigest> digest;
+
+    public DigestPasswordVerifier(String algorithm) {
+        this.digest = ThreadLocal.withInitial(() -> DigestUtils.getDigest(algorithm));
+    }
+
+    @Override
+    public boolean verify(String password, String hash) {
+        MessageDigest messageDigest = digest.get();
+        messageDigest.reset();
+        return equalsHex(messageDigest.digest(StringUtils.getBytesUtf8(password)), hash);
+    }
+
+    static boolean equalsHex(byte[] bytes, String hex) {
+        if (hex.length() != bytes.length * 2) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            diff |= hex.charAt(2 * i) ^ HEX[b >>> 4];
+            diff |= hex.charAt(2 * i + 1) ^ HEX[b & 0x0f];
+        }
+        return diff == 0;
+    }
+
+    @AutoService(PasswordVerifierFactory.class)
+    public static class Factory implements PasswordVerifierFactory {
+
+        @Override
+        public boolean supports(String hashFunction) {
+            return DigestUtils.isAvailable(hashFunction);
+        }
+
+        @Override
+        public PasswordVerifier create(String hashFunction) {
+            return new DigestPasswordVerifier(hashFunction);
+        }
+    }
+}
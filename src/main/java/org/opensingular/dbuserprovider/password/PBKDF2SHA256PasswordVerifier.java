@@ -0,0 +1,41 @@
+package org.opensingular.dbuserprovider.password;
+
+import com.google.auto.service.AutoService;
+import org.opensingular.dbuserprovider.util.PBKDF2SHA256HashingUtil;
+
+/**
+ * "PBKDF2-SHA256" hashes stored as {@code $iterations$salt$base64(key)}.
+ */
+public class PBKDF2SHA256PasswordVerifier implements PasswordVerifier {
+
+    static final String HASH_FUNCTION = "PBKDF2-SHA256";
+
+    @Override
+    public boolean verify(String password, String hash) {
+        String[] components = hash.split("\\$");
+        if (components.length < 4) {
+            return false;
+        }
+        int iterations;
+        try {
+            iterations = Integer.parseInt(components[1]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return new PBKDF2SHA256HashingUtil(password, components[2], iterations).validatePassword(components[3]);
+    }
+
+    @AutoService(PasswordVerifierFactory.class)
+    public static class Factory implements PasswordVerifierFactory {
+
+        @Override
+        public boolean supports(String hashFunction) {
+            return HASH_FUNCTION.equals(hashFunction);
+        }
+
+        @Override
+        public PasswordVerifier create(String hashFunction) {
+            return new PBKDF2SHA256PasswordVerifier();
+        }
+    }
+}
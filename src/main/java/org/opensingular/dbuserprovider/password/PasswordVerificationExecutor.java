@@ -0,0 +1,122 @@
+package org.opensingular.dbuserprovider.password;
+
+import lombok.extern.jbosslog.JBossLog;
+import org.opensingular.dbuserprovider.DBUserStorageException;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs password hash verifications of a component on a dedicated, bounded pool of threads, so that slow hashes
+ * (bcrypt, Argon2, PBKDF2) cannot take every request thread during a login storm. When all threads are busy and the
+ * queue is full, verifications are rejected right away with a {@link DBUserStorageException}.
+ * With zero threads, or once the executor is closed, verifications run on the calling thread.
+ */
+@JBossLog
+public class PasswordVerificationExecutor implements Closeable {
+
+    private final ThreadPoolExecutor             executor;
+    private final Map<String, VerificationStats> stats = new ConcurrentHashMap<>();
+
+    public PasswordVerificationExecutor(String name, int threads, int queueSize) {
+        if (threads <= 0) {
+            this.executor = null;
+            return;
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(queueSize, 1)), r -> {
+            Thread thread = new Thread(r, "singular-user-provider-password-" + name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // idle pools of replaced configurations release their threads on their own
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static class VerificationStats {
+        private final LongAdder count       = new LongAdder();
+        private final LongAdder waitNanos   = new LongAdder();
+        private final LongAdder verifyNanos = new LongAdder();
+        private final LongAdder rejected    = new LongAdder();
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getWaitNanos() {
+            return waitNanos.sum();
+        }
+
+        public long getVerifyNanos() {
+            return verifyNanos.sum();
+        }
+
+        public long getRejected() {
+            return rejected.sum();
+        }
+    }
+
+    public boolean verify(String algorithm, BooleanSupplier verification) {
+        VerificationStats algorithmStats = stats.computeIfAbsent(algorithm, a -> new VerificationStats());
+        long              queuedAt       = System.nanoTime();
+        if (executor == null || executor.isShutdown()) {
+            return run(algorithmStats, queuedAt, verification);
+        }
+        Future<Boolean> result;
+        try {
+            result = executor.submit(() -> run(algorithmStats, queuedAt, verification));
+        } catch (RejectedExecutionException e) {
+            algorithmStats.rejected.increment();
+            throw new DBUserStorageException("Too many password verifications in progress, try again later", e);
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new DBUserStorageException(e.getMessage(), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new DBUserStorageException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static boolean run(VerificationStats algorithmStats, long queuedAt, BooleanSupplier verification) {
+        long start = System.nanoTime();
+        algorithmStats.waitNanos.add(start - queuedAt);
+        try {
+            return verification.getAsBoolean();
+        } finally {
+            algorithmStats.verifyNanos.add(System.nanoTime() - start);
+            algorithmStats.count.increment();
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    public Map<String, VerificationStats> getStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package org.opensingular.dbuserprovider.password;
+
+/**
+ * Checks a password against the hash stored in the user database. Implementations are resolved once per component
+ * (see {@link PasswordVerifierFactory}) and shared by all its logins, so they must be thread safe.
+ */
+public interface PasswordVerifier {
+
+    boolean verify(String password, String hash);
+}
@@ -0,0 +1,12 @@
+package org.opensingular.dbuserprovider.password;
+
+/**
+ * Creates the {@link PasswordVerifier} of a hash function, as selected in the component's "hashFunction" option.
+ * Factories are discovered with {@link java.util.ServiceLoader}.
+ */
+public interface PasswordVerifierFactory {
+
+    boolean supports(String hashFunction);
+
+    PasswordVerifier create(String hashFunction);
+}
@@ -0,0 +1,31 @@
+package org.opensingular.dbuserprovider.password;
+
+import org.opensingular.dbuserprovider.DBUserStorageException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+
+public class PasswordVerifiers {
+
+    private static final List<PasswordVerifierFactory> FACTORIES = loadFactories();
+
+    private PasswordVerifiers() {
+    }
+
+    private static List<PasswordVerifierFactory> loadFactories() {
+        List<PasswordVerifierFactory> factories = new ArrayList<>();
+        ServiceLoader.load(PasswordVerifierFactory.class, PasswordVerifierFactory.class.getClassLoader()).forEach(factories::add);
+        return Collections.unmodifiableList(factories);
+    }
+
+    public static PasswordVerifier resolve(String hashFunction) {
+        for (PasswordVerifierFactory factory : FACTORIES) {
+            if (factory.supports(hashFunction)) {
+                return factory.create(hashFunction);
+            }
+        }
+        throw new DBUserStorageException("Unsupported password hash function: " + hashFunction, null);
+    }
+}
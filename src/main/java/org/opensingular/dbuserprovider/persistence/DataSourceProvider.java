@@ -2,66 +2,193 @@ package org.opensingular.dbuserprovider.persistence;
 
 
 import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariConfigMXBean;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import lombok.extern.jbosslog.JBossLog;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.sql.DataSource;
 import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ExecutorService;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 @JBossLog
 public class DataSourceProvider implements Closeable {
-    
-    private static final SimpleDateFormat SIMPLE_DATE_FORMAT = new SimpleDateFormat("dd-MM-YYYY HH:mm:ss");
-    private              ExecutorService  executor           = Executors.newFixedThreadPool(1);
-    private              HikariDataSource hikariDataSource;
-    
+
+    private static final SimpleDateFormat         SIMPLE_DATE_FORMAT   = new SimpleDateFormat("dd-MM-YYYY HH:mm:ss");
+    private static final long                     DRAIN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long                     DRAIN_CHECK_MILLIS   = 100;
+    private static final ScheduledExecutorService RETIREMENT_EXECUTOR  = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "singular-user-provider-pool-retirement");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicReference<HikariDataSource> hikariDataSource = new AtomicReference<>();
+    // swapped out pools not closed yet, closed right away by close()
+    private final Set<HikariDataSource>             retiring         = ConcurrentHashMap.newKeySet();
+
     public DataSourceProvider() {
     }
-    
-    
-    synchronized Optional<DataSource> getDataSource() {
-        return Optional.ofNullable(hikariDataSource);
+
+
+    Optional<DataSource> getDataSource() {
+        return Optional.ofNullable(hikariDataSource.get());
+    }
+
+    /**
+     * Borrows a connection from the current pool. If the pool is swapped while the connection is being acquired
+     * (and the old pool is already closed), the connection is borrowed from the new pool instead.
+     */
+    Connection getConnection() throws SQLException {
+        while (true) {
+            HikariDataSource dataSource = hikariDataSource.get();
+            if (dataSource == null) {
+                throw new SQLException("Data source is not configured");
+            }
+            try {
+                return dataSource.getConnection();
+            } catch (SQLException e) {
+                if (dataSource == hikariDataSource.get()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Creates the pool or, when only the pool settings changed, resizes the running pool in place.
+     * A change of database, driver or credentials swaps in a new pool.
+     */
+    public void configure(String url, RDBMS rdbms, String user, String pass, String name, PoolConfiguration poolConfiguration) {
+        configure(url, rdbms.getDriver(), rdbms.getTestString(), user, pass, name, poolConfiguration);
     }
-    
-    
-    public void configure(String url, RDBMS rdbms, String user, String pass, String name) {
+
+    /**
+     * Same as {@link #configure(String, RDBMS, String, String, String, PoolConfiguration)} with a driver other than
+     * the default one of the database, e.g. an embedded database running in a compatibility mode.
+     */
+    public void configure(String url, String driver, String testQuery, String user, String pass, String name, PoolConfiguration poolConfiguration) {
+        HikariDataSource current = hikariDataSource.get();
+        if (current != null && !current.isClosed()
+            && Objects.equals(current.getJdbcUrl(), url)
+            && Objects.equals(current.getDriverClassName(), driver)
+            && Objects.equals(current.getUsername(), user)
+            && Objects.equals(current.getPassword(), pass)) {
+            log.infov("Resizing pool {0}", current.getPoolName());
+            HikariConfigMXBean config = current.getHikariConfigMXBean();
+            config.setMaximumPoolSize(poolConfiguration.getMaximumPoolSize());
+            config.setMinimumIdle(poolConfiguration.getMinimumIdle());
+            config.setConnectionTimeout(poolConfiguration.getConnectionTimeoutMillis());
+            config.setMaxLifetime(poolConfiguration.getMaxLifetimeMillis());
+            config.setLeakDetectionThreshold(poolConfiguration.getLeakDetectionThresholdMillis());
+            return;
+        }
         HikariConfig hikariConfig = new HikariConfig();
         hikariConfig.setUsername(user);
         hikariConfig.setPassword(pass);
         hikariConfig.setPoolName(StringUtils.capitalize("SINGULAR-USER-PROVIDER-" + name + SIMPLE_DATE_FORMAT.format(new Date())));
         hikariConfig.setJdbcUrl(url);
-        hikariConfig.setConnectionTestQuery(rdbms.getTestString());
-        hikariConfig.setDriverClassName(rdbms.getDriver());
+        hikariConfig.setConnectionTestQuery(testQuery);
+        hikariConfig.setDriverClassName(driver);
+        hikariConfig.setMaximumPoolSize(poolConfiguration.getMaximumPoolSize());
+        hikariConfig.setMinimumIdle(poolConfiguration.getMinimumIdle());
+        hikariConfig.setConnectionTimeout(poolConfiguration.getConnectionTimeoutMillis());
+        hikariConfig.setMaxLifetime(poolConfiguration.getMaxLifetimeMillis());
+        hikariConfig.setLeakDetectionThreshold(poolConfiguration.getLeakDetectionThresholdMillis());
         HikariDataSource newDS = new HikariDataSource(hikariConfig);
         newDS.validate();
-        HikariDataSource old = this.hikariDataSource;
-        this.hikariDataSource = newDS;
-        disposeOldDataSource(old);
+        disposeOldDataSource(hikariDataSource.getAndSet(newDS));
     }
-    
+
+    /**
+     * Retires a pool that is no longer handed out: idle connections are closed right away, the pool itself is closed
+     * once the connections still in use have been returned (or after {@link #DRAIN_TIMEOUT_MILLIS}).
+     */
     private void disposeOldDataSource(HikariDataSource old) {
-        executor.submit(() -> {
-            try {
-                if (old != null) {
-                    old.close();
-                }
-            } catch (Exception e) {
-                log.error(e.getMessage(), e);
+        if (old == null) {
+            return;
+        }
+        try {
+            old.getHikariPoolMXBean().softEvictConnections();
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        }
+        retiring.add(old);
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        RETIREMENT_EXECUTOR.schedule(() -> closeWhenDrained(old, deadline), DRAIN_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void closeWhenDrained(HikariDataSource old, long deadline) {
+        try {
+            HikariPoolMXBean pool = old.getHikariPoolMXBean();
+            if (pool != null && pool.getActiveConnections() > 0 && System.currentTimeMillis() < deadline) {
+                RETIREMENT_EXECUTOR.schedule(() -> closeWhenDrained(old, deadline), DRAIN_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            }
+            if (pool != null && pool.getActiveConnections() > 0) {
+                log.warnv("Closing pool {0} with {1} connections still in use", old.getPoolName(), pool.getActiveConnections());
             }
-        });
+            old.close();
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        } finally {
+            if (old.isClosed()) {
+                retiring.remove(old);
+            }
+        }
     }
-    
+
+    public int getActiveConnections() {
+        HikariPoolMXBean pool = getPoolMXBean();
+        return pool == null ? 0 : pool.getActiveConnections();
+    }
+
+    public int getIdleConnections() {
+        HikariPoolMXBean pool = getPoolMXBean();
+        return pool == null ? 0 : pool.getIdleConnections();
+    }
+
+    public int getPendingThreads() {
+        HikariPoolMXBean pool = getPoolMXBean();
+        return pool == null ? 0 : pool.getThreadsAwaitingConnection();
+    }
+
+    public int getTotalConnections() {
+        HikariPoolMXBean pool = getPoolMXBean();
+        return pool == null ? 0 : pool.getTotalConnections();
+    }
+
+    private HikariPoolMXBean getPoolMXBean() {
+        HikariDataSource dataSource = hikariDataSource.get();
+        return dataSource == null || dataSource.isClosed() ? null : dataSource.getHikariPoolMXBean();
+    }
+
+    /**
+     * Closes the pool and the swapped out pools still draining, before returning: the retirement executor runs on a
+     * daemon thread, which would not get to close them when Keycloak shuts down.
+     */
     @Override
     public void close() {
-        executor.shutdownNow();
-        if (hikariDataSource != null) {
-            hikariDataSource.close();
+        HikariDataSource current = hikariDataSource.getAndSet(null);
+        if (current != null) {
+            current.close();
+        }
+        for (HikariDataSource old : retiring) {
+            old.close();
+            retiring.remove(old);
         }
     }
 }
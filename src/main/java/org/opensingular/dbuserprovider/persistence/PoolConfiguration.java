@@ -0,0 +1,41 @@
+package org.opensingular.dbuserprovider.persistence;
+
+/**
+ * Connection pool settings of a component. Everything here can be changed on a running pool.
+ */
+public class PoolConfiguration {
+
+    private final int  maximumPoolSize;
+    private final int  minimumIdle;
+    private final long connectionTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final long leakDetectionThresholdMillis;
+
+    public PoolConfiguration(int maximumPoolSize, int minimumIdle, long connectionTimeoutMillis, long maxLifetimeMillis, long leakDetectionThresholdMillis) {
+        this.maximumPoolSize = maximumPoolSize;
+        this.minimumIdle = minimumIdle;
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+    }
+
+    public int getMaximumPoolSize() {
+        return maximumPoolSize;
+    }
+
+    public int getMinimumIdle() {
+        return minimumIdle;
+    }
+
+    public long getConnectionTimeoutMillis() {
+        return connectionTimeoutMillis;
+    }
+
+    public long getMaxLifetimeMillis() {
+        return maxLifetimeMillis;
+    }
+
+    public long getLeakDetectionThresholdMillis() {
+        return leakDetectionThresholdMillis;
+    }
+}
@@ -0,0 +1,53 @@
+package org.opensingular.dbuserprovider.persistence;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs the asynchronous queries of a component (e.g. the user count of a listing, next to its page) on a small bounded
+ * pool of threads. When all threads are busy and the queue is full, queries run on the calling thread, so a busy pool
+ * only makes them sequential again. With zero threads, queries always run on the calling thread.
+ */
+public class QueryExecutor implements Closeable {
+
+    private static final int QUEUE_SIZE = 100;
+
+    private final ThreadPoolExecutor executor;
+
+    public QueryExecutor(String name, int threads) {
+        if (threads <= 0) {
+            this.executor = null;
+            return;
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        // unlike CallerRunsPolicy, also runs the query once the executor is shut down, so no future is left incomplete
+        RejectedExecutionHandler runOnCaller = (query, rejectedBy) -> query.run();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), r -> {
+            Thread thread = new Thread(r, "singular-user-provider-query-" + name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, runOnCaller);
+        // idle pools of replaced configurations release their threads on their own
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> query) {
+        if (executor == null) {
+            return CompletableFuture.completedFuture(query.get());
+        }
+        return CompletableFuture.supplyAsync(query, executor);
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.opensingular.dbuserprovider.persistence;
+
+import lombok.extern.jbosslog.JBossLog;
+import org.opensingular.dbuserprovider.metrics.QueryKind;
+import org.opensingular.dbuserprovider.util.PagingUtil.Pageable;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs the queries of a component. Queries slower than the threshold are logged at WARN, without their parameters
+ * (which hold usernames and emails). At DEBUG, one query in {@code debugSampleRate} is logged with its parameters; the
+ * message is only built when it is actually logged.
+ */
+@JBossLog
+public class QueryLogger {
+
+    private final long       slowQueryThresholdNanos;
+    private final int        debugSampleRate;
+    private final AtomicLong queries = new AtomicLong();
+
+    /**
+     * @param slowQueryThresholdMillis queries taking at least this long are logged at WARN, 0 disables the slow query log
+     * @param debugSampleRate          log one query in this many at DEBUG
+     */
+    public QueryLogger(long slowQueryThresholdMillis, int debugSampleRate) {
+        this.slowQueryThresholdNanos = slowQueryThresholdMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(slowQueryThresholdMillis) : Long.MAX_VALUE;
+        this.debugSampleRate = Math.max(debugSampleRate, 1);
+    }
+
+    void log(QueryKind kind, String query, Pageable pageable, Object[] params, long nanos, int rows) {
+        if (nanos >= slowQueryThresholdNanos) {
+            log.warnv("Slow query: kind={0} durationMs={1} rows={2} firstResult={3} maxResults={4} params={5} query={6}",
+                      kind.getTag(), TimeUnit.NANOSECONDS.toMillis(nanos), rows,
+                      pageable == null ? null : pageable.getFirstResult(), pageable == null ? null : pageable.getMaxResults(),
+                      params == null ? 0 : params.length, query);
+        } else if (log.isDebugEnabled() && queries.incrementAndGet() % debugSampleRate == 0) {
+            log.debugv("Query: kind={0} durationMs={1} rows={2} firstResult={3} maxResults={4} params={5} query={6}",
+                       kind.getTag(), TimeUnit.NANOSECONDS.toMillis(nanos), rows,
+                       pageable == null ? null : pageable.getFirstResult(), pageable == null ? null : pageable.getMaxResults(),
+                       Arrays.toString(params), query);
+        }
+    }
+}
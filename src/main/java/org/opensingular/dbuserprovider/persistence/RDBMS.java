@@ -1,11 +1,7 @@
 package org.opensingular.dbuserprovider.persistence;
 
 
-import org.hibernate.dialect.Dialect;
-import org.hibernate.dialect.MySQLDialect;
-import org.hibernate.dialect.OracleDialect;
-import org.hibernate.dialect.PostgreSQLDialect;
-import org.hibernate.dialect.SQLServerDialect;
+import org.opensingular.dbuserprovider.util.PagingUtil.PageSyntax;
 
 import java.util.Arrays;
 import java.util.List;
@@ -13,21 +9,27 @@ import java.util.stream.Collectors;
 
 public enum RDBMS {
 
-    POSTGRESQL("PostgreSQL 12+", org.postgresql.Driver.class.getName(), "SELECT 1", new PostgreSQLDialect()),
-    MYSQL("MySQL 8+", com.mysql.cj.jdbc.Driver.class.getName(), "SELECT 1", new MySQLDialect()),
-    ORACLE("Oracle 19+", oracle.jdbc.OracleDriver.class.getName(), "SELECT 1 FROM DUAL", new OracleDialect()),
-    SQL_SERVER("MS SQL Server 2012+ (jtds)", net.sourceforge.jtds.jdbc.Driver.class.getName(), "SELECT 1", new SQLServerDialect());
+    POSTGRESQL("PostgreSQL 12+", org.postgresql.Driver.class.getName(), "SELECT 1", PageSyntax.LIMIT_OFFSET,
+               "select reltuples::bigint from pg_class where oid = to_regclass(?)"),
+    MYSQL("MySQL 8+", com.mysql.cj.jdbc.Driver.class.getName(), "SELECT 1", PageSyntax.LIMIT_OFFSET,
+          "select table_rows from information_schema.tables where table_schema = database() and table_name = ?"),
+    ORACLE("Oracle 19+", oracle.jdbc.OracleDriver.class.getName(), "SELECT 1 FROM DUAL", PageSyntax.OFFSET_FETCH,
+           "select num_rows from user_tables where table_name = upper(?)"),
+    SQL_SERVER("MS SQL Server 2012+ (jtds)", net.sourceforge.jtds.jdbc.Driver.class.getName(), "SELECT 1", PageSyntax.ORDERED_OFFSET_FETCH,
+               "select sum(rows) from sys.partitions where object_id = object_id(?) and index_id in (0, 1)");
 
-    private final String  desc;
-    private final String  driver;
-    private final String  testString;
-    private final Dialect dialect;
+    private final String     desc;
+    private final String     driver;
+    private final String     testString;
+    private final PageSyntax pageSyntax;
+    private final String     estimatedCountQuery;
 
-    RDBMS(String desc, String driver, String testString, Dialect dialect) {
+    RDBMS(String desc, String driver, String testString, PageSyntax pageSyntax, String estimatedCountQuery) {
         this.desc = desc;
         this.driver = driver;
         this.testString = testString;
-        this.dialect = dialect;
+        this.pageSyntax = pageSyntax;
+        this.estimatedCountQuery = estimatedCountQuery;
     }
 
     public static RDBMS getByDescription(String desc) {
@@ -39,8 +41,8 @@ public enum RDBMS {
         return null;
     }
 
-    public Dialect getDialect() {
-        return dialect;
+    public PageSyntax getPageSyntax() {
+        return pageSyntax;
     }
 
     public static List<String> getAllDescriptions() {
@@ -59,5 +61,13 @@ public enum RDBMS {
         return testString;
     }
 
+    /**
+     * Query reading the row count of a table (the only parameter) from the planner statistics. It returns no row, null
+     * or a negative number when the table has no statistics yet.
+     */
+    public String getEstimatedCountQuery() {
+        return estimatedCountQuery;
+    }
+
 
 }
@@ -0,0 +1,86 @@
+package org.opensingular.dbuserprovider.persistence;
+
+import lombok.extern.jbosslog.JBossLog;
+import org.opensingular.dbuserprovider.DBUserStorageException;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * Reads rows from an open {@link ResultSet} one at a time. The result set, its statement and its connection
+ * are closed when the last row has been read, when reading fails or when {@link #close()} is called,
+ * whichever comes first. The number of rows read is then passed to {@code onClose}.
+ */
+@JBossLog
+class ResultSetSpliterator extends Spliterators.AbstractSpliterator<Map<String, String>> implements AutoCloseable {
+
+    private final Connection                               connection;
+    private final Statement                                statement;
+    private final ResultSet                                rs;
+    private final Function<ResultSet, Map<String, String>> rowReader;
+    private final IntConsumer                              onClose;
+    private       int                                      rows;
+    private       boolean                                  closed;
+
+    ResultSetSpliterator(Connection connection, Statement statement, ResultSet rs, Function<ResultSet, Map<String, String>> rowReader, IntConsumer onClose) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.connection = connection;
+        this.statement = statement;
+        this.rs = rs;
+        this.rowReader = rowReader;
+        this.onClose = onClose;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Map<String, String>> action) {
+        if (closed) {
+            return false;
+        }
+        try {
+            if (!rs.next()) {
+                close();
+                return false;
+            }
+            action.accept(rowReader.apply(rs));
+            rows++;
+            return true;
+        } catch (SQLException e) {
+            close();
+            throw new DBUserStorageException(e.getMessage(), e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeQuietly(rs, statement, connection);
+        onClose.accept(rows);
+    }
+
+    static void closeQuietly(AutoCloseable... closeables) {
+        for (AutoCloseable closeable : closeables) {
+            if (closeable == null) {
+                continue;
+            }
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.opensingular.dbuserprovider.persistence;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable user row: its values, in the order of a {@link RowSchema} shared with all the other rows of the query.
+ */
+final class Row extends AbstractMap<String, String> {
+
+    private final RowSchema schema;
+    private final String[]  values;
+
+    Row(RowSchema schema, String[] values) {
+        this.schema = schema;
+        this.values = values;
+    }
+
+    /**
+     * A copy of this row without {@code label}, e.g. the password hash read together with the user.
+     */
+    Row without(String label) {
+        int position = schema.position(label);
+        if (position < 0) {
+            return this;
+        }
+        String[] remaining = new String[values.length - 1];
+        System.arraycopy(values, 0, remaining, 0, position);
+        System.arraycopy(values, position + 1, remaining, position, values.length - position - 1);
+        return new Row(schema.without(label), remaining);
+    }
+
+    /**
+     * @see RowSchema#labelIgnoringCase(String)
+     */
+    String labelIgnoringCase(String label) {
+        return schema.labelIgnoringCase(label);
+    }
+
+    @Override
+    public String get(Object key) {
+        int position = schema.position(key);
+        return position < 0 ? null : values[position];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return schema.position(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int position;
+
+                    @Override
+                    public boolean hasNext() {
+                        return position < values.length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, String> entry = new SimpleImmutableEntry<>(schema.label(position), values[position]);
+                        position++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+}
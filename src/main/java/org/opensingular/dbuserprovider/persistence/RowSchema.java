@@ -0,0 +1,126 @@
+package org.opensingular.dbuserprovider.persistence;
+
+import org.opensingular.dbuserprovider.DBUserStorageException;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Column layout of a query result: the distinct column labels, in order, and the (1 based) index each label is read
+ * from. When a label appears more than once, its first column is used. Resolved once per query and shared by all the
+ * {@link Row}s read with it.
+ */
+final class RowSchema {
+
+    private final String[]               labels;
+    private final int[]                  columnIndexes;
+    private final int                    columnCount;
+    private final Map<String, Integer>   positions;
+    // layouts without one of the columns, see without(String)
+    private final Map<String, RowSchema> withoutColumn = new ConcurrentHashMap<>();
+
+    private RowSchema(List<String> labels, List<Integer> columnIndexes, int columnCount) {
+        this.labels = labels.toArray(new String[0]);
+        this.columnIndexes = columnIndexes.stream().mapToInt(Integer::intValue).toArray();
+        this.columnCount = columnCount;
+        this.positions = new HashMap<>();
+        for (int i = 0; i < this.labels.length; i++) {
+            positions.put(this.labels[i], i);
+        }
+    }
+
+    static RowSchema of(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData      = rs.getMetaData();
+        int               columnCount   = metaData.getColumnCount();
+        List<String>      labels        = new ArrayList<>(columnCount);
+        List<Integer>     columnIndexes = new ArrayList<>(columnCount);
+        for (int i = 1; i <= columnCount; i++) {
+            String label = metaData.getColumnLabel(i);
+            if (!labels.contains(label)) {
+                labels.add(label);
+                columnIndexes.add(i);
+            }
+        }
+        return new RowSchema(labels, columnIndexes, columnCount);
+    }
+
+    /**
+     * True if a result set with {@code columnCount} columns can be read with this schema.
+     */
+    boolean matches(int columnCount) {
+        return this.columnCount == columnCount;
+    }
+
+    /**
+     * The same layout without {@code label}, built once per label.
+     */
+    RowSchema without(String label) {
+        if (!positions.containsKey(label)) {
+            return this;
+        }
+        return withoutColumn.computeIfAbsent(label, this::buildWithout);
+    }
+
+    private RowSchema buildWithout(String label) {
+        int           position         = positions.get(label);
+        List<String>  remainingLabels  = new ArrayList<>(Arrays.asList(labels));
+        List<Integer> remainingIndexes = new ArrayList<>();
+        for (int index : columnIndexes) {
+            remainingIndexes.add(index);
+        }
+        remainingLabels.remove(position);
+        remainingIndexes.remove(position);
+        return new RowSchema(remainingLabels, remainingIndexes, columnCount);
+    }
+
+    Row read(ResultSet rs) {
+        try {
+            String[] values = new String[labels.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = rs.getString(columnIndexes[i]);
+            }
+            return new Row(this, values);
+        } catch (SQLException e) {
+            throw new DBUserStorageException(e.getMessage(), e);
+        }
+    }
+
+    int size() {
+        return labels.length;
+    }
+
+    String label(int position) {
+        return labels[position];
+    }
+
+    /**
+     * The label matching {@code label} exactly or, failing that, ignoring case (unquoted aliases come back upper case
+     * on H2 and Oracle), or null.
+     */
+    String labelIgnoringCase(String label) {
+        if (positions.containsKey(label)) {
+            return label;
+        }
+        for (String candidate : labels) {
+            if (candidate.equalsIgnoreCase(label)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the position of {@code label} in the rows, or -1
+     */
+    int position(Object label) {
+        Integer position = positions.get(label);
+        return position == null ? -1 : position;
+    }
+}
@@ -0,0 +1,65 @@
+package org.opensingular.dbuserprovider.persistence;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.opensingular.dbuserprovider.DBUserStorageException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Per component cache of user counts, the total one and one per search term, kept for {@code ttlSeconds}.
+ * Counts are cached as futures, so a count still running (e.g. started next to the page of a listing) is shared
+ * with the callers asking for it in the meantime. A {@code ttlSeconds} of zero disables the cache.
+ */
+public class UserCountCache {
+
+    private static final String TOTAL = "total";
+    private static final String SEARCH = "search:";
+
+    private final boolean                                  enabled;
+    private final Cache<String, CompletableFuture<Integer>> counts;
+
+    public UserCountCache(long ttlSeconds) {
+        this.enabled = ttlSeconds > 0;
+        this.counts = CacheBuilder.newBuilder()
+                                  .maximumSize(1000)
+                                  .expireAfterWrite(Math.max(ttlSeconds, 0), TimeUnit.SECONDS)
+                                  .build();
+    }
+
+    /**
+     * Returns the cached or running count for {@code search} (null or empty for the total count), or starts the loader.
+     * Counts that fail or complete with null (the query could not be executed) are not cached.
+     */
+    CompletableFuture<Integer> get(String search, Function<String, CompletableFuture<Integer>> loader) {
+        if (!enabled) {
+            return loader.apply(search);
+        }
+        String                     cacheKey = search == null || search.isEmpty() ? TOTAL : SEARCH + search;
+        CompletableFuture<Integer> count;
+        try {
+            count = counts.get(cacheKey, () -> loader.apply(search));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            // the loader throws unchecked exceptions only, which Guava wraps in an UncheckedExecutionException
+            throw new DBUserStorageException(e.getCause().getMessage(), e.getCause());
+        }
+        count.whenComplete((result, error) -> {
+            if (result == null) {
+                counts.asMap().remove(cacheKey, count);
+            }
+        });
+        return count;
+    }
+
+    public void invalidateAll() {
+        counts.invalidateAll();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+}
@@ -0,0 +1,126 @@
+package org.opensingular.dbuserprovider.persistence;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Per component cache of point lookups (by id, username and email).
+ * Users found are kept for {@code ttlSeconds}, lookups that returned no user are kept for {@code negativeTtlSeconds}.
+ * A {@code maxSize} of zero disables the cache.
+ */
+public class UserLookupCache {
+
+    public enum LookupType {
+        ID("id:"),
+        USERNAME("username:"),
+        EMAIL("email:");
+
+        private final String prefix;
+
+        LookupType(String prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    private final boolean                            enabled;
+    private final Cache<String, Map<String, String>> users;
+    private final Cache<String, Boolean>             misses;
+    private final LongAdder                          hitCount         = new LongAdder();
+    private final LongAdder                          negativeHitCount = new LongAdder();
+    private final LongAdder                          missCount        = new LongAdder();
+
+    public UserLookupCache(long maxSize, long ttlSeconds, long negativeTtlSeconds) {
+        this.enabled = maxSize > 0 && ttlSeconds > 0;
+        this.users = CacheBuilder.newBuilder()
+                                 .maximumSize(Math.max(maxSize, 0))
+                                 .expireAfterWrite(Math.max(ttlSeconds, 0), TimeUnit.SECONDS)
+                                 .build();
+        this.misses = CacheBuilder.newBuilder()
+                                  .maximumSize(Math.max(maxSize, 0))
+                                  .expireAfterWrite(Math.max(negativeTtlSeconds, 0), TimeUnit.SECONDS)
+                                  .build();
+    }
+
+    /**
+     * Returns the cached user for the given lookup or runs the loader.
+     * The loader returns the rows found, or null when the query could not be executed (such results are not cached).
+     */
+    Map<String, String> get(LookupType type, String key, Function<String, List<Map<String, String>>> loader) {
+        if (!enabled || key == null) {
+            return first(loader.apply(key));
+        }
+        String              cacheKey = type.prefix + key;
+        Map<String, String> user     = users.getIfPresent(cacheKey);
+        if (user != null) {
+            hitCount.increment();
+            return user;
+        }
+        if (misses.getIfPresent(cacheKey) != null) {
+            negativeHitCount.increment();
+            return null;
+        }
+        missCount.increment();
+        List<Map<String, String>> rows = loader.apply(key);
+        user = first(rows);
+        if (user != null) {
+            user = Collections.unmodifiableMap(user);
+            users.put(cacheKey, user);
+        } else if (rows != null) {
+            misses.put(cacheKey, Boolean.TRUE);
+        }
+        return user;
+    }
+
+    private static Map<String, String> first(List<Map<String, String>> rows) {
+        return rows == null || rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * Forgets the lookups of changed users: every lookup that found one of them (also by a username or email it no longer
+     * has), and the misses of their current username and email.
+     */
+    public void invalidate(Collection<Map<String, String>> changedUsers) {
+        Set<String> ids = new HashSet<>();
+        for (Map<String, String> user : changedUsers) {
+            ids.add(user.get("id"));
+            misses.invalidate(LookupType.USERNAME.prefix + user.get("username"));
+            misses.invalidate(LookupType.EMAIL.prefix + user.get("email"));
+        }
+        users.asMap().values().removeIf(user -> ids.contains(user.get("id")));
+    }
+
+    public void invalidateAll() {
+        users.invalidateAll();
+        misses.invalidateAll();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long size() {
+        return users.size() + misses.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getNegativeHitCount() {
+        return negativeHitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+}
@@ -1,106 +1,234 @@
 package org.opensingular.dbuserprovider.persistence;
 
-import java.security.MessageDigest;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import javax.sql.DataSource;
-
-import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.codec.binary.StringUtils;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.NotImplementedException;
-import org.mindrot.jbcrypt.BCrypt;
 import org.opensingular.dbuserprovider.DBUserStorageException;
+import org.opensingular.dbuserprovider.metrics.ProviderMetrics;
+import org.opensingular.dbuserprovider.metrics.QueryKind;
 import org.opensingular.dbuserprovider.model.QueryConfigurations;
-import org.opensingular.dbuserprovider.util.PBKDF2SHA256HashingUtil;
+import org.opensingular.dbuserprovider.password.PasswordVerificationExecutor;
+import org.opensingular.dbuserprovider.persistence.UserLookupCache.LookupType;
 import org.opensingular.dbuserprovider.util.PagingUtil;
 import org.opensingular.dbuserprovider.util.PagingUtil.Pageable;
 
-import com.google.common.collect.ImmutableMap;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
-import de.mkammerer.argon2.Argon2;
-import de.mkammerer.argon2.Argon2Factory;
-import de.mkammerer.argon2.Argon2Factory.Argon2Types;
 import lombok.extern.jbosslog.JBossLog;
 
 
 @JBossLog
 public class UserRepository {
-    private static final Map<String, Argon2Types> ARGON2TYPES = ImmutableMap.of(
-        "Argon2d", Argon2Types.ARGON2d,
-        "Argon2i", Argon2Types.ARGON2i,
-        "Argon2id", Argon2Types.ARGON2id
-    );
-    private static final Map<Argon2Types, Argon2> ARGON2 = ImmutableMap.of(
-        Argon2Types.ARGON2d, Argon2Factory.create(Argon2Types.ARGON2d),
-        Argon2Types.ARGON2i, Argon2Factory.create(Argon2Types.ARGON2i),
-        Argon2Types.ARGON2id, Argon2Factory.create(Argon2Types.ARGON2id)
-    );
-    
-    private DataSourceProvider  dataSourceProvider;
-    private QueryConfigurations queryConfigurations;
-    
-    public UserRepository(DataSourceProvider dataSourceProvider, QueryConfigurations queryConfigurations) {
-        this.dataSourceProvider  = dataSourceProvider;
-        this.queryConfigurations = queryConfigurations;
-    }
-    
-    
-    private <T> T doQuery(String query, Pageable pageable, Function<ResultSet, T> resultTransformer, Object... params) {
-        Optional<DataSource> dataSourceOpt = dataSourceProvider.getDataSource();
-        if (dataSourceOpt.isPresent()) {
-            DataSource dataSource = dataSourceOpt.get();
-            try (Connection c = dataSource.getConnection()) {
-                if (pageable != null) {
-                    query = PagingUtil.formatScriptWithPageable(query, pageable, queryConfigurations.getRDBMS());
-                }
-                log.infov("Query: {0} params: {1} ", query, Arrays.toString(params));
-                try (PreparedStatement statement = c.prepareStatement(query)) {
-                    if (params != null) {
-                        for (int i = 1; i <= params.length; i++) {
-                            statement.setObject(i, params[i - 1]);
-                        }
-                    }
-                    try (ResultSet rs = statement.executeQuery()) {
-                        return resultTransformer.apply(rs);
-                    }
-                }
-            } catch (SQLException e) {
-                log.error(e.getMessage(), e);
-            }
+    
+    private static final String KEYSET_QUERY      = "select * from (%s) keyset_page order by keyset_page.%s";
+    private static final String KEYSET_SEEK_QUERY = "select * from (%s) keyset_page where keyset_page.%2$s > ? order by keyset_page.%2$s";
+    
+    private DataSourceProvider           dataSourceProvider;
+    private QueryConfigurations          queryConfigurations;
+    private UserLookupCache              userLookupCache;
+    private UserCountCache               userCountCache;
+    private QueryExecutor                queryExecutor;
+    private PasswordVerificationExecutor passwordVerificationExecutor;
+    private ProviderMetrics              metrics;
+    private QueryLogger                  queryLogger;
+    // column layout per query text
+    private Cache<String, RowSchema>      rowSchemas      = CacheBuilder.newBuilder().maximumSize(1000).build();
+    // keys of the rows of the last page read, per search term, used to seek to a page starting within or right after it
+    private Cache<String, KeysetPosition> keysetPositions = CacheBuilder.newBuilder()
+                                                                        .maximumSize(1000)
+                                                                        .expireAfterAccess(10, TimeUnit.MINUTES)
+                                                                        .build();
+    
+    public UserRepository(DataSourceProvider dataSourceProvider, QueryConfigurations queryConfigurations, UserLookupCache userLookupCache, UserCountCache userCountCache, QueryExecutor queryExecutor, PasswordVerificationExecutor passwordVerificationExecutor, ProviderMetrics metrics, QueryLogger queryLogger) {
+        this.dataSourceProvider           = dataSourceProvider;
+        this.queryConfigurations          = queryConfigurations;
+        this.userLookupCache              = userLookupCache;
+        this.userCountCache               = userCountCache;
+        this.queryExecutor                = queryExecutor;
+        this.passwordVerificationExecutor = passwordVerificationExecutor;
+        this.metrics                      = metrics;
+        this.queryLogger                  = queryLogger;
+    }
+    
+    private static class KeysetPosition {
+        private final int          firstResult;
+        private final List<Object> keys;
+        
+        KeysetPosition(int firstResult, List<Object> keys) {
+            this.firstResult = firstResult;
+            this.keys        = keys;
+        }
+        
+        /**
+         * Key of the row at the given offset of the result, or null when it is not part of this page.
+         */
+        Object keyAt(int offset) {
+            int index = offset - firstResult;
+            return index >= 0 && index < keys.size() ? keys.get(index) : null;
+        }
+    }
+    
+    private static class KeysetPage {
+        private final List<Map<String, String>> rows;
+        private final List<Object>              keys;
+        
+        KeysetPage(List<Map<String, String>> rows, List<Object> keys) {
+            this.rows = rows;
+            this.keys = keys;
+        }
+    }
+    
+    
+    private <T> T doQuery(QueryKind kind, String query, Pageable pageable, Function<ResultSet, T> resultTransformer, Object... params) {
+        if (!dataSourceProvider.getDataSource().isPresent()) {
             return null;
         }
-        return null;
+        long start  = System.nanoTime();
+        T    result = null;
+        try (Connection c = getConnection();
+             PreparedStatement statement = prepareStatement(c, query, pageable, queryConfigurations.getMaxResultRows(), queryConfigurations.getFetchSize(), params);
+             ResultSet rs = statement.executeQuery()) {
+            result = resultTransformer.apply(rs);
+        } catch (SQLException e) {
+            log.error(e.getMessage(), e);
+        } finally {
+            afterQuery(kind, query, pageable, params, System.nanoTime() - start, rowCount(result));
+        }
+        return result;
+    }
+    
+    private void afterQuery(QueryKind kind, String query, Pageable pageable, Object[] params, long nanos, int rows) {
+        metrics.recordQuery(kind, nanos, rows);
+        queryLogger.log(kind, query, pageable, params, nanos, rows);
+    }
+    
+    private static int rowCount(Object result) {
+        if (result == null) {
+            return -1;
+        }
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        if (result instanceof KeysetPage) {
+            return ((KeysetPage) result).rows.size();
+        }
+        return 1;
+    }
+    
+    private Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return dataSourceProvider.getConnection();
+        } finally {
+            metrics.recordConnectionAcquire(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Runs the query and returns its rows as a lazily read stream. The connection stays open until the stream
+     * is exhausted or closed, so callers must close the stream when they do not read it to the end.
+     */
+    private Stream<Map<String, String>> streamQuery(QueryKind kind, String query, Pageable pageable, Object... params) {
+        try {
+            return openStream(kind, query, pageable, queryConfigurations.getMaxResultRows(), queryConfigurations.getFetchSize(), params);
+        } catch (SQLException e) {
+            log.error(e.getMessage(), e);
+            return Stream.empty();
+        }
+    }
+    
+    /**
+     * Opens the stream of a synchronization query. The maximum rows per query does not apply, and a query that cannot be
+     * executed throws instead of reading as an empty result, which would report a successful sync of no users.
+     */
+    private Stream<Map<String, String>> streamSyncQuery(QueryKind kind, String query, int fetchSize, Object... params) {
+        try {
+            return openStream(kind, query, null, 0, fetchSize, params);
+        } catch (SQLException e) {
+            throw new DBUserStorageException(e.getMessage(), e);
+        }
     }
     
-    private List<Map<String, String>> readMap(ResultSet rs) {
+    private Stream<Map<String, String>> openStream(QueryKind kind, String query, Pageable pageable, int maxRows, int fetchSize, Object... params) throws SQLException {
+        if (!dataSourceProvider.getDataSource().isPresent()) {
+            return Stream.empty();
+        }
+        long              start     = System.nanoTime();
+        Connection        c         = null;
+        PreparedStatement statement = null;
+        ResultSet         rs        = null;
+        try {
+            c = getConnection();
+            // some drivers (e.g. PostgreSQL) only honour the fetch size inside a transaction
+            c.setAutoCommit(false);
+            statement = prepareStatement(c, query, pageable, maxRows, fetchSize, params);
+            rs = statement.executeQuery();
+            RowSchema             schema      = rowSchema(query, rs);
+            ResultSetSpliterator  spliterator = new ResultSetSpliterator(c, statement, rs, schema::read,
+                                                                         rows -> afterQuery(kind, query, pageable, params, System.nanoTime() - start, rows));
+            return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+        } catch (SQLException e) {
+            ResultSetSpliterator.closeQuietly(rs, statement, c);
+            afterQuery(kind, query, pageable, params, System.nanoTime() - start, -1);
+            throw e;
+        }
+    }
+    
+    private PreparedStatement prepareStatement(Connection c, String query, Pageable pageable, int maxRows, int fetchSize, Object... params) throws SQLException {
+        if (pageable != null) {
+            query = PagingUtil.pagedQuery(query, queryConfigurations.getRDBMS());
+            params = PagingUtil.withPageParameters(params, pageable, queryConfigurations.getRDBMS());
+        }
+        PreparedStatement statement = c.prepareStatement(query);
         try {
-            List<Map<String, String>> data         = new ArrayList<>();
-            Set<String>               columnsFound = new HashSet<>();
-            for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
-                String columnLabel = rs.getMetaData().getColumnLabel(i);
-                columnsFound.add(columnLabel);
+            if (params != null) {
+                for (int i = 1; i <= params.length; i++) {
+                    statement.setObject(i, params[i - 1]);
+                }
+            }
+            if (maxRows > 0) {
+                statement.setMaxRows(maxRows);
             }
+            if (fetchSize > 0) {
+                statement.setFetchSize(fetchSize);
+            }
+            return statement;
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Reads all rows of a result of {@code query}, with the column layout resolved once per query.
+     */
+    private Function<ResultSet, List<Map<String, String>>> readMap(String query) {
+        return rs -> readMap(rs, rowSchema(query, rs));
+    }
+    
+    List<Map<String, String>> readMap(ResultSet rs, RowSchema schema) {
+        try {
+            List<Map<String, String>> data = new ArrayList<>();
             while (rs.next()) {
-                Map<String, String> result = new HashMap<>();
-                for (String col : columnsFound) {
-                    result.put(col, rs.getString(col));
-                }
-                data.add(result);
+                data.add(schema.read(rs));
             }
             return data;
         } catch (Exception e) {
@@ -108,6 +236,23 @@ public class UserRepository {
         }
     }
     
+    /**
+     * The cached column layout of {@code query}, resolved again if the result no longer has the same number of columns
+     * (e.g. a {@code select *} after the table changed).
+     */
+    RowSchema rowSchema(String query, ResultSet rs) {
+        try {
+            RowSchema schema = rowSchemas.getIfPresent(query);
+            if (schema == null || !schema.matches(rs.getMetaData().getColumnCount())) {
+                schema = RowSchema.of(rs);
+                rowSchemas.put(query, schema);
+            }
+            return schema;
+        } catch (SQLException e) {
+            throw new DBUserStorageException(e.getMessage(), e);
+        }
+    }
+    
     
     private Integer readInt(ResultSet rs) {
         try {
@@ -117,6 +262,18 @@ public class UserRepository {
         }
     }
     
+    private Long readLong(ResultSet rs) {
+        try {
+            if (!rs.next()) {
+                return null;
+            }
+            long value = rs.getLong(1);
+            return rs.wasNull() ? null : value;
+        } catch (Exception e) {
+            throw new DBUserStorageException(e.getMessage(), e);
+        }
+    }
+    
     private Boolean readBoolean(ResultSet rs) {
         try {
             return rs.next() ? rs.getBoolean(1) : null;
@@ -134,68 +291,236 @@ public class UserRepository {
     }
     
     public List<Map<String, String>> getAllUsers() {
-        return doQuery(queryConfigurations.getListAll(), null, this::readMap);
+        return doQuery(QueryKind.SEARCH, queryConfigurations.getListAll(), null, readMap(queryConfigurations.getListAll()));
     }
     
+    /**
+     * The number of users, or of users matching {@code search}, served from the count cache when it is enabled.
+     */
     public int getUsersCount(String search) {
+        CompletableFuture<Integer> count = userCountCache.get(search, s -> CompletableFuture.completedFuture(countUsers(s)));
+        return Optional.ofNullable(await(count)).orElse(0);
+    }
+    
+    /**
+     * Same as {@link #getUsersCount(String)}, counting on the query executor. The future completes with null when the
+     * query could not be executed.
+     */
+    public CompletableFuture<Integer> getUsersCountAsync(String search) {
+        return userCountCache.get(search, s -> queryExecutor.supplyAsync(() -> countUsers(s)));
+    }
+    
+    /**
+     * Starts counting the users matching {@code search} in the background, so that the count Keycloak asks for next to
+     * a listing is already running (or cached) by then. Does nothing when counts are not cached.
+     */
+    public void prefetchUsersCount(String search) {
+        if (userCountCache.isEnabled()) {
+            getUsersCountAsync(search).exceptionally(e -> {
+                log.warnv("Could not count users: {0}", e.getMessage());
+                return null;
+            });
+        }
+    }
+    
+    private Integer countUsers(String search) {
         if (search == null || search.isEmpty()) {
-            return Optional.ofNullable(doQuery(queryConfigurations.getCount(), null, this::readInt)).orElse(0);
+            Integer estimate = estimateUsersCount();
+            return estimate != null ? estimate : doQuery(QueryKind.COUNT, queryConfigurations.getCount(), null, this::readInt);
+        } else if (queryConfigurations.hasCountBySearchTerm()) {
+            return doQuery(QueryKind.COUNT, queryConfigurations.getCountBySearchTerm(), null, this::readInt, searchTermParams(search, queryConfigurations.getCountBySearchTermParamsCount()));
         } else {
             String query = String.format("select count(*) from (%s) count", queryConfigurations.getFindBySearchTerm());
-            return Optional.ofNullable(doQuery(query, null, this::readInt, searchTermParams(search))).orElse(0);
+            return doQuery(QueryKind.COUNT, query, null, this::readInt, searchTermParams(search));
+        }
+    }
+    
+    /**
+     * Row count of the estimated count table from the planner statistics, or null (exact count) when it is not configured
+     * or the table has no statistics yet.
+     */
+    private Integer estimateUsersCount() {
+        if (!queryConfigurations.hasEstimatedCountTable()) {
+            return null;
         }
+        Long estimate = doQuery(QueryKind.ESTIMATED_COUNT, queryConfigurations.getRDBMS().getEstimatedCountQuery(), null, this::readLong, queryConfigurations.getEstimatedCountTable());
+        if (estimate == null || estimate < 0) {
+            log.debugv("No statistics for table {0}, counting users", queryConfigurations.getEstimatedCountTable());
+            return null;
+        }
+        return (int) Math.min(estimate, Integer.MAX_VALUE);
     }
     
     private Object[] searchTermParams(String search) {
-        if (queryConfigurations.getFindBySearchTermParamsCount() == 1)
+        return searchTermParams(search, queryConfigurations.getFindBySearchTermParamsCount());
+    }
+    
+    private static Object[] searchTermParams(String search, int paramsCount) {
+        if (paramsCount == 1)
             return new String[] {search};
-        String[] terms = new String[queryConfigurations.getFindBySearchTermParamsCount()];
+        String[] terms = new String[paramsCount];
         Arrays.fill(terms, search);
         return terms;
     }
     
     public Map<String, String> findUserById(String id) {
-        return Optional.ofNullable(doQuery(queryConfigurations.getFindById(), null, this::readMap, id))
-                       .orElse(Collections.emptyList())
-                       .stream().findFirst().orElse(null);
+        return userLookupCache.get(LookupType.ID, id, key -> doQuery(QueryKind.FIND_BY_ID, queryConfigurations.getFindById(), null, readMap(queryConfigurations.getFindById()), key));
     }
     
     public Optional<Map<String, String>> findUserByUsername(String username) {
-        return Optional.ofNullable(doQuery(queryConfigurations.getFindByUsername(), null, this::readMap, username))
-                       .orElse(Collections.emptyList())
-                       .stream().findFirst();
+        return Optional.ofNullable(userLookupCache.get(LookupType.USERNAME, username, key -> doQuery(QueryKind.FIND_BY_USERNAME, queryConfigurations.getFindByUsername(), null, readMap(queryConfigurations.getFindByUsername()), key)));
+    }
+    
+    /**
+     * Same as {@link #findUserByUsername(String)}, but when the combined user/password hash query is configured and the user
+     * is not cached, the hash read in the same round trip is handed to {@code passwordHashConsumer} (external id, hash).
+     * The hash column, matched ignoring case, is never part of the returned user data.
+     */
+    public Optional<Map<String, String>> findUserByUsername(String username, BiConsumer<String, String> passwordHashConsumer) {
+        if (!queryConfigurations.hasFindUserWithPasswordHash()) {
+            return findUserByUsername(username);
+        }
+        return Optional.ofNullable(userLookupCache.get(LookupType.USERNAME, username, key -> {
+            String                    query = queryConfigurations.getFindUserWithPasswordHash();
+            List<Map<String, String>> rows  = doQuery(QueryKind.FIND_BY_USERNAME, query, null, readMap(query), key);
+            if (rows != null) {
+                String hashColumn = queryConfigurations.getPasswordHashColumn();
+                for (int i = 0; i < rows.size(); i++) {
+                    Row    row       = (Row) rows.get(i);
+                    String hashLabel = row.labelIgnoringCase(hashColumn);
+                    if (hashLabel == null) {
+                        // never cache (or store as attributes) the columns of a query the hash cannot be told apart in
+                        throw new DBUserStorageException("The find user with password hash query returns no " + hashColumn + " column", null);
+                    }
+                    passwordHashConsumer.accept(row.get("id"), row.get(hashLabel));
+                    rows.set(i, row.without(hashLabel));
+                }
+            }
+            return rows;
+        }));
+    }
+    
+    /**
+     * Version (or last modification) of the user, read with the optional version query; null when it could not be read.
+     */
+    public String findVersionById(String id) {
+        return doQuery(QueryKind.FIND_VERSION_BY_ID, queryConfigurations.getFindVersionById(), null, this::readString, id);
     }
     
     public Optional<Map<String, String>> findUserByEmail(String email) {
-        return Optional.ofNullable(doQuery(queryConfigurations.getFindByEmail(), null, this::readMap, email))
-            .orElse(Collections.emptyList())
-            .stream().findFirst();
+        return Optional.ofNullable(userLookupCache.get(LookupType.EMAIL, email, key -> doQuery(QueryKind.FIND_BY_EMAIL, queryConfigurations.getFindByEmail(), null, readMap(queryConfigurations.getFindByEmail()), key)));
     }
     
     public List<Map<String, String>> findUsers(String search, PagingUtil.Pageable pageable) {
+        if (queryConfigurations.hasKeysetColumn() && pageable != null) {
+            return findUsersByKeyset(search, pageable);
+        }
         if (search == null || search.isEmpty()) {
-            return doQuery(queryConfigurations.getListAll(), pageable, this::readMap);
+            return doQuery(QueryKind.SEARCH, queryConfigurations.getListAll(), pageable, readMap(queryConfigurations.getListAll()));
         }
-        return doQuery(queryConfigurations.getFindBySearchTerm(), pageable, this::readMap, searchTermParams(search));
+        return doQuery(QueryKind.SEARCH, queryConfigurations.getFindBySearchTerm(), pageable, readMap(queryConfigurations.getFindBySearchTerm()), searchTermParams(search));
     }
     
-    public boolean validateCredentials(String username, String password) {
-        String hash = Optional.ofNullable(doQuery(queryConfigurations.getFindPasswordHash(), null, this::readString, username)).orElse("");
-        if (queryConfigurations.isBlowfish()) {
-            return !hash.isEmpty() && BCrypt.checkpw(password, hash);
-        } else if (queryConfigurations.isArgon2()) {
-            return !hash.isEmpty() && ARGON2.get(ARGON2TYPES.get(queryConfigurations.getHashFunction())).verify(hash, password.toCharArray());
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new DBUserStorageException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+    
+    /**
+     * Keyset (seek) pagination: pages are ordered by the configured key column and, when the row right before
+     * {@code firstResult} was part of the page previously returned for the same search, the query starts after the key
+     * of that row instead of making the database skip {@code firstResult} rows. Pages may overlap, as the admin console
+     * asks for one row more than it shows.
+     */
+    private List<Map<String, String>> findUsersByKeyset(String search, PagingUtil.Pageable pageable) {
+        String   searchKey = search == null ? "" : search;
+        String   query     = searchKey.isEmpty() ? queryConfigurations.getListAll() : queryConfigurations.getFindBySearchTerm();
+        Object[] params    = searchKey.isEmpty() ? new Object[0] : searchTermParams(search);
+        String   keyColumn = queryConfigurations.getKeysetColumn();
+        
+        KeysetPosition position = keysetPositions.getIfPresent(searchKey);
+        Object         seekKey  = position == null ? null : position.keyAt(pageable.getFirstResult() - 1);
+        KeysetPage     page;
+        if (seekKey != null) {
+            Object[] seekParams = Arrays.copyOf(params, params.length + 1, Object[].class);
+            seekParams[params.length] = seekKey;
+            String seekQuery = String.format(KEYSET_SEEK_QUERY, query, keyColumn);
+            page = doQuery(QueryKind.SEARCH, seekQuery, new PagingUtil.Pageable(0, pageable.getMaxResults()), rs -> readKeysetPage(rs, rowSchema(seekQuery, rs)), seekParams);
         } else {
-            String hashFunction = queryConfigurations.getHashFunction();
-
-            if(hashFunction.equals("PBKDF2-SHA256")){
-                String[] components = hash.split("\\$");
-                return new PBKDF2SHA256HashingUtil(password, components[2], Integer.valueOf(components[1])).validatePassword(components[3]);
+            String firstQuery = String.format(KEYSET_QUERY, query, keyColumn);
+            page = doQuery(QueryKind.SEARCH, firstQuery, pageable, rs -> readKeysetPage(rs, rowSchema(firstQuery, rs)), params);
+        }
+        if (page == null) {
+            return null;
+        }
+        if (!page.keys.isEmpty() && !page.keys.contains(null)) {
+            keysetPositions.put(searchKey, new KeysetPosition(pageable.getFirstResult(), page.keys));
+        } else {
+            keysetPositions.invalidate(searchKey);
+        }
+        return page.rows;
+    }
+    
+    private KeysetPage readKeysetPage(ResultSet rs, RowSchema schema) {
+        try {
+            List<Map<String, String>> rows = new ArrayList<>();
+            List<Object>              keys = new ArrayList<>();
+            while (rs.next()) {
+                rows.add(schema.read(rs));
+                keys.add(rs.getObject(queryConfigurations.getKeysetColumnLabel()));
             }
-
-            MessageDigest digest   = DigestUtils.getDigest(hashFunction);
-            byte[]        pwdBytes = StringUtils.getBytesUtf8(password);
-            return Objects.equals(Hex.encodeHexString(digest.digest(pwdBytes)), hash);
+            return new KeysetPage(rows, keys);
+        } catch (Exception e) {
+            throw new DBUserStorageException(e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Streaming variant of {@link #findUsers(String, Pageable)}: rows are read from the open result set as the
+     * stream is consumed, using the configured fetch size. The stream must be closed if it is not read to the end.
+     */
+    public Stream<Map<String, String>> findUsersStream(String search, PagingUtil.Pageable pageable) {
+        if (search == null || search.isEmpty()) {
+            return streamQuery(QueryKind.SEARCH, queryConfigurations.getListAll(), pageable);
+        }
+        return streamQuery(QueryKind.SEARCH, queryConfigurations.getFindBySearchTerm(), pageable, searchTermParams(search));
+    }
+    
+    /**
+     * All users of the list all query, for a full synchronization: the maximum rows per query does not apply, and rows
+     * are fetched {@code fetchSize} at a time unless a fetch size is configured. The stream must be closed.
+     */
+    public Stream<Map<String, String>> streamAllUsers(int fetchSize) {
+        int configuredFetchSize = queryConfigurations.getFetchSize();
+        return streamSyncQuery(QueryKind.SYNC, queryConfigurations.getListAll(), configuredFetchSize > 0 ? configuredFetchSize : fetchSize);
+    }
+    
+    /**
+     * Users changed since {@code since}, read with the optional changed since query. The maximum rows per query does not
+     * apply. The stream must be closed.
+     */
+    public Stream<Map<String, String>> streamUsersChangedSince(Timestamp since) {
+        return streamSyncQuery(QueryKind.CHANGED_SINCE, queryConfigurations.getFindChangedSince(), queryConfigurations.getFetchSize(), since);
+    }
+    
+    public boolean validateCredentials(String username, String password) {
+        String hash = Optional.ofNullable(doQuery(QueryKind.PASSWORD_HASH, queryConfigurations.getFindPasswordHash(), null, this::readString, username)).orElse("");
+        return verifyPassword(hash, password);
+    }
+    
+    public boolean verifyPassword(String hash, String password) {
+        String storedHash = hash == null ? "" : hash;
+        long   start      = System.nanoTime();
+        try {
+            return passwordVerificationExecutor.verify(queryConfigurations.getHashFunction(), () -> queryConfigurations.getPasswordVerifier().verify(password, storedHash));
+        } finally {
+            metrics.recordPasswordVerification(queryConfigurations.getHashFunction(), System.nanoTime() - start);
         }
     }
     
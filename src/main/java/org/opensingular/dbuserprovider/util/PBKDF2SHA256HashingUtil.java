@@ -1,41 +1,108 @@
 package org.opensingular.dbuserprovider.util;
 
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.util.Base64;
-import java.util.Objects;
 
-import javax.crypto.SecretKey;
+import javax.crypto.Mac;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
 
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * PBKDF2 with HMAC-SHA256 and a 256 bit derived key.
+ * <p>
+ * The derivation runs on a {@link Mac} kept per thread, and the iteration loop works in place on two reusable
+ * buffers, so verifying a password allocates nothing per iteration. The derived key is compared with the stored one
+ * as raw bytes, in constant time.
+ */
+@JBossLog
 public class PBKDF2SHA256HashingUtil {
 
-    private char[] password;
-    private byte[] salt;
-    private int iterations;
-    private static final int keyLength = 256;
+    private static final String           ALGORITHM = "HmacSHA256";
+    private static final int              keyLength = 256;
+    private static final int              KEY_BYTES = keyLength / 8;
+    private static final ThreadLocal<Mac> MAC       = ThreadLocal.withInitial(PBKDF2SHA256HashingUtil::newMac);
+
+    private final String password;
+    private final byte[] salt;
+    private final int    iterations;
+
     /**
      * @param password
      * @param salt
      * @param iterations
      */
     public PBKDF2SHA256HashingUtil(String password, String salt, int iterations){
-        this.password = password.toCharArray();
+        this.password = password;
         this.salt = salt.getBytes();
         this.iterations = iterations;
     }
 
+    /**
+     * @param passwordHash the Base64 encoded derived key
+     */
     public boolean validatePassword(String passwordHash){
-        return Objects.equals(passwordHash, hashPassword());
+        byte[] expected;
+        try {
+            expected = Base64.getDecoder().decode(passwordHash);
+        } catch (IllegalArgumentException e) {
+            log.warnv("Stored PBKDF2 key is not valid Base64: {0}", e.getMessage());
+            return false;
+        }
+        if (expected.length != KEY_BYTES || iterations < 1) {
+            return false;
+        }
+        try {
+            return MessageDigest.isEqual(expected, hashPassword());
+        } catch (GeneralSecurityException e) {
+            log.error(e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private byte[] hashPassword() throws GeneralSecurityException {
+        byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+        if (passwordBytes.length == 0) {
+            // HMAC keys cannot be empty, the JCE implementation handles that case
+            SecretKeyFactory skf  = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+            PBEKeySpec       spec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyLength);
+            return skf.generateSecret(spec).getEncoded();
+        }
+        Mac mac = MAC.get();
+        mac.init(new SecretKeySpec(passwordBytes, ALGORITHM));
+        return derive(mac, salt, iterations);
+    }
+
+    /**
+     * Derives the first (and only) block of the key: U1 = HMAC(salt || INT(1)), Ui = HMAC(Ui-1), T = U1 ^ ... ^ Uc.
+     */
+    private static byte[] derive(Mac mac, byte[] salt, int iterations) throws ShortBufferException {
+        byte[] u = new byte[KEY_BYTES];
+        byte[] t = new byte[KEY_BYTES];
+        mac.update(salt);
+        mac.update(new byte[]{0, 0, 0, 1});
+        mac.doFinal(u, 0);
+        System.arraycopy(u, 0, t, 0, KEY_BYTES);
+        for (int i = 1; i < iterations; i++) {
+            mac.update(u);
+            mac.doFinal(u, 0);
+            for (int j = 0; j < KEY_BYTES; j++) {
+                t[j] ^= u[j];
+            }
+        }
+        return t;
     }
 
-    private String hashPassword(){
+    private static Mac newMac() {
         try {
-            SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-            PBEKeySpec spec = new PBEKeySpec(this.password, this.salt, this.iterations, keyLength);
-            SecretKey key = skf.generateSecret(spec);
-            return Base64.getEncoder().encodeToString(key.getEncoded());
-        } catch (Exception e) {
-            return "";
+            return Mac.getInstance(ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
         }
     }
 }
@@ -1,21 +1,16 @@
 package org.opensingular.dbuserprovider.util;
 
-import org.hibernate.dialect.Dialect;
-import org.hibernate.dialect.pagination.LimitHandler;
-import org.hibernate.query.spi.Limit;
-import org.opensingular.dbuserprovider.DBUserStorageException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.opensingular.dbuserprovider.persistence.RDBMS;
 
-import java.sql.SQLException;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class PagingUtil {
 
-    @SuppressWarnings("RegExpRedundantEscape")
-    private static final Pattern SINGLE_QUESTION_MARK_REGEX = Pattern.compile("(^|[^\\?])(\\?)([^\\?]|$)");
-
+    private static final Pattern ORDER_BY_REGEX = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
 
     public static class Pageable {
         private final int firstResult;
@@ -25,49 +20,112 @@ public class PagingUtil {
             this.firstResult = firstResult;
             this.maxResults = maxResults;
         }
-    }
-
-    public static String formatScriptWithPageable(String query, Pageable pageable, RDBMS RDBMS) {
 
-        final Dialect dialect = RDBMS.getDialect();
-
-        Limit rowSelection = new Limit();
-        rowSelection.setFirstRow(pageable.firstResult);
-        rowSelection.setMaxRows(pageable.maxResults);
+        public int getFirstResult() {
+            return firstResult;
+        }
 
-        String escapedSQL = escapeQuestionMarks(query);
+        public int getMaxResults() {
+            return maxResults;
+        }
+    }
 
-        StringBuilder processedSQL;
-        try {
-            LimitHandler limitHandler = dialect.getLimitHandler();
-            processedSQL = new StringBuilder(limitHandler.processSql(escapedSQL, rowSelection));
-            int                                 col       = 1;
-            PreparedStatementParameterCollector collector = new PreparedStatementParameterCollector();
-            col += limitHandler.bindLimitParametersAtStartOfQuery(rowSelection, collector, col);
-            limitHandler.bindLimitParametersAtEndOfQuery(rowSelection, collector, col);
+    /**
+     * How a page is appended to a query. Offset and limit are always the last two JDBC parameters,
+     * so the paged SQL text does not depend on the page and the prepared plan can be reused.
+     */
+    public enum PageSyntax {
+        /**
+         * PostgreSQL, MySQL
+         */
+        LIMIT_OFFSET(" limit ? offset ?", false, false),
+        /**
+         * Oracle 12c+
+         */
+        OFFSET_FETCH(" offset ? rows fetch next ? rows only", true, false),
+        /**
+         * SQL Server 2012+, which only accepts OFFSET / FETCH after an ORDER BY
+         */
+        ORDERED_OFFSET_FETCH(" offset ? rows fetch next ? rows only", true, true);
+
+        private final String                pageClause;
+        private final boolean               offsetFirst;
+        private final boolean               requiresOrderBy;
+        private final Cache<String, String> pagedQueries = CacheBuilder.newBuilder().maximumSize(1000).build();
+
+        PageSyntax(String pageClause, boolean offsetFirst, boolean requiresOrderBy) {
+            this.pageClause = pageClause;
+            this.offsetFirst = offsetFirst;
+            this.requiresOrderBy = requiresOrderBy;
+        }
 
-            Map<Integer, Object> parameters = collector.getParameters();
-            for (int i = 1; i <= parameters.keySet().size(); i++) {
-                Matcher matcher = SINGLE_QUESTION_MARK_REGEX.matcher(processedSQL);
-                if (matcher.find()) {
-                    String str = String.valueOf(parameters.get(i));
-                    processedSQL.replace(matcher.start(2), matcher.end(2), str);
-                }
+        private String paginate(String query) {
+            String sql = query.trim();
+            if (sql.endsWith(";")) {
+                sql = sql.substring(0, sql.length() - 1).trim();
             }
-            return unescapeQuestionMarks(processedSQL.toString());
-
-        } catch (SQLException e) {
-            throw new DBUserStorageException(e.getMessage(), e);
+            if (requiresOrderBy && !hasOrderBy(sql)) {
+                sql += " order by (select null)";
+            }
+            return sql + pageClause;
         }
     }
 
+    /**
+     * Returns the paged form of {@code query} for the given database, built once per query and cached.
+     * Bind the parameters returned by {@link #withPageParameters(Object[], Pageable, RDBMS)} to it.
+     */
+    public static String pagedQuery(String query, RDBMS rdbms) {
+        PageSyntax syntax = rdbms.getPageSyntax();
+        String     paged  = syntax.pagedQueries.getIfPresent(query);
+        if (paged == null) {
+            paged = syntax.paginate(query);
+            syntax.pagedQueries.put(query, paged);
+        }
+        return paged;
+    }
 
-    private static String unescapeQuestionMarks(String sql) {
-        return sql.replaceAll("\\?\\?", "?");
+    /**
+     * Appends the offset and limit of {@code pageable} to the query parameters, in the order the paged query expects them.
+     */
+    public static Object[] withPageParameters(Object[] params, Pageable pageable, RDBMS rdbms) {
+        Object[] paged = params == null ? new Object[2] : Arrays.copyOf(params, params.length + 2, Object[].class);
+        int      first = paged.length - 2;
+        if (rdbms.getPageSyntax().offsetFirst) {
+            paged[first] = pageable.firstResult;
+            paged[first + 1] = pageable.maxResults;
+        } else {
+            paged[first] = pageable.maxResults;
+            paged[first + 1] = pageable.firstResult;
+        }
+        return paged;
     }
 
-    private static String escapeQuestionMarks(String sql) {
-        return sql.replaceAll("\\?", "??");
+    /**
+     * True when the query has a top level ORDER BY, one outside of any parentheses (subqueries, function calls,
+     * window clauses) and string literals.
+     */
+    private static boolean hasOrderBy(String sql) {
+        Matcher matcher = ORDER_BY_REGEX.matcher(sql);
+        int     depth   = 0;
+        boolean quoted  = false;
+        int     scanned = 0;
+        while (matcher.find()) {
+            for (; scanned < matcher.start(); scanned++) {
+                char c = sql.charAt(scanned);
+                if (c == '\'') {
+                    quoted = !quoted;
+                } else if (!quoted && c == '(') {
+                    depth++;
+                } else if (!quoted && c == ')') {
+                    depth--;
+                }
+            }
+            if (depth == 0 && !quoted) {
+                return true;
+            }
+        }
+        return false;
     }
 
 }
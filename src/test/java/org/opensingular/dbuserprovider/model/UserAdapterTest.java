@@ -0,0 +1,146 @@
+package org.opensingular.dbuserprovider.model;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.common.util.MultivaluedHashMap;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.storage.adapter.AbstractUserAdapterFederatedStorage;
+import org.keycloak.storage.federated.UserFederatedStorageProvider;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UserAdapterTest {
+
+    private final Map<String, MultivaluedHashMap<String, String>> stored  = new HashMap<>();
+    private final List<String>                                    calls   = new ArrayList<>();
+    private       KeycloakSession                                 session;
+    private       RealmModel                                      realm;
+    private       ComponentModel                                  model;
+
+    @Before
+    public void stubFederatedStorage() {
+        UserFederatedStorageProvider federatedStorage = stub(UserFederatedStorageProvider.class, (name, args) -> {
+            calls.add(name);
+            if ("getAttributes".equals(name)) {
+                MultivaluedHashMap<String, String> copy = new MultivaluedHashMap<>();
+                copy.putAll(stored.getOrDefault((String) args[1], new MultivaluedHashMap<>()));
+                return copy;
+            }
+            if ("setAttribute".equals(name)) {
+                stored.computeIfAbsent((String) args[1], id -> new MultivaluedHashMap<>()).put((String) args[2], (List<String>) args[3]);
+            }
+            if ("removeAttribute".equals(name)) {
+                stored.computeIfAbsent((String) args[1], id -> new MultivaluedHashMap<>()).remove((String) args[2]);
+            }
+            return null;
+        });
+        session = stub(KeycloakSession.class, (name, args) -> "getProvider".equals(name) && args[0] == UserFederatedStorageProvider.class ? federatedStorage : null);
+        realm = stub(RealmModel.class, (name, args) -> "getId".equals(name) ? "realm" : null);
+        model = new ComponentModel();
+        model.setId("component");
+    }
+
+    @Test
+    public void listingReadsRowAttributesWithoutFederatedStorage() {
+        for (int i = 0; i < 100; i++) {
+            UserAdapter user = lazyUser(row(i));
+            assertEquals("user" + i, user.getUsername());
+            assertEquals("user" + i + "@example.com", user.getEmail());
+            assertEquals("First" + i, user.getFirstName());
+            assertEquals("Last" + i, user.getLastName());
+        }
+        assertEquals(0, calls.size());
+    }
+
+    @Test
+    public void listingShowsBuiltInAttributesStoredInFederatedStorage() {
+        MultivaluedHashMap<String, String> attributes = new MultivaluedHashMap<>();
+        attributes.putSingle(AbstractUserAdapterFederatedStorage.ENABLED_ATTRIBUTE, "false");
+        attributes.putSingle(AbstractUserAdapterFederatedStorage.EMAIL_VERIFIED_ATTRIBUTE, "true");
+        attributes.putSingle(AbstractUserAdapterFederatedStorage.CREATED_TIMESTAMP_ATTRIBUTE, "1700000000000");
+        stored.put("f:component:1", attributes);
+        UserAdapter user = lazyUser(row(1));
+
+        assertFalse(user.isEnabled());
+        assertTrue(user.isEmailVerified());
+        assertEquals(Long.valueOf(1700000000000L), user.getCreatedTimestamp());
+        assertEquals(1, calls.stream().filter("getAttributes"::equals).count());
+    }
+
+    @Test
+    public void builtInAttributesOfTheRowAreReadFromTheRow() {
+        Map<String, String> row = row(1);
+        row.put(AbstractUserAdapterFederatedStorage.ENABLED_ATTRIBUTE, "false");
+        UserAdapter user = lazyUser(row);
+
+        assertFalse(user.isEnabled());
+        assertEquals(0, calls.size());
+    }
+
+    @Test
+    public void builtInAttributesAreReadFromFederatedStorageOnceLoaded() {
+        MultivaluedHashMap<String, String> attributes = new MultivaluedHashMap<>();
+        attributes.putSingle(AbstractUserAdapterFederatedStorage.ENABLED_ATTRIBUTE, "false");
+        attributes.putSingle("phone", "555-0100");
+        stored.put("f:component:1", attributes);
+        UserAdapter user = lazyUser(row(1));
+
+        assertEquals("555-0100", user.getFirstAttribute("phone"));
+        assertFalse(user.isEnabled());
+        assertEquals(1, calls.stream().filter("getAttributes"::equals).count());
+    }
+
+    @Test
+    public void removedMappedAttributeIsGoneFromTheLoadedAttributes() {
+        UserAdapter user = lazyUser(row(1));
+        user.getFirstAttribute("phone");
+
+        user.removeAttribute(UserModel.FIRST_NAME);
+
+        assertNull(user.getFirstName());
+        assertFalse(stored.get("f:component:1").containsKey(AbstractUserAdapterFederatedStorage.FIRST_NAME_ATTRIBUTE));
+    }
+
+    private UserAdapter lazyUser(Map<String, String> row) {
+        return new UserAdapter(session, realm, model, row, false, new AttributeSyncStats(), true);
+    }
+
+    private static Map<String, String> row(int i) {
+        Map<String, String> row = new HashMap<>();
+        row.put("id", String.valueOf(i));
+        row.put("username", "user" + i);
+        row.put("email", "user" + i + "@example.com");
+        row.put("firstName", "First" + i);
+        row.put("lastName", "Last" + i);
+        return row;
+    }
+
+    private interface Answer {
+        Object answer(String method, Object[] args);
+    }
+
+    private static <T> T stub(Class<T> type, Answer answer) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if ("hashCode".equals(method.getName())) {
+                return System.identityHashCode(proxy);
+            }
+            if ("equals".equals(method.getName())) {
+                return proxy == args[0];
+            }
+            Object result = answer.answer(method.getName(), args);
+            return result == null && method.getReturnType() == boolean.class ? Boolean.FALSE : result;
+        }));
+    }
+}
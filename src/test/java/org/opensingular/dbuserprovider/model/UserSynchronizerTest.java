@@ -0,0 +1,177 @@
+package org.opensingular.dbuserprovider.model;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.storage.federated.UserFederatedStorageProvider;
+import org.keycloak.storage.user.SynchronizationResult;
+import org.opensingular.dbuserprovider.DBUserStorageException;
+import org.opensingular.dbuserprovider.metrics.ProviderMetrics;
+import org.opensingular.dbuserprovider.persistence.DataSourceProvider;
+import org.opensingular.dbuserprovider.persistence.PoolConfiguration;
+import org.opensingular.dbuserprovider.persistence.QueryExecutor;
+import org.opensingular.dbuserprovider.persistence.QueryLogger;
+import org.opensingular.dbuserprovider.persistence.RDBMS;
+import org.opensingular.dbuserprovider.persistence.UserCountCache;
+import org.opensingular.dbuserprovider.persistence.UserLookupCache;
+import org.opensingular.dbuserprovider.persistence.UserRepository;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UserSynchronizerTest {
+
+    private static final String URL  = "jdbc:h2:mem:user-synchronizer-test;DB_CLOSE_DELAY=-1";
+    private static final String USER = "select id as \"id\", username as \"username\", email as \"email\" from users";
+
+    private final Set<String>            synced = ConcurrentHashMap.newKeySet();
+    private       Connection             keepAlive;
+    private       DataSourceProvider     dataSourceProvider;
+    private       UserRepository         repository;
+    private       KeycloakSessionFactory sessionFactory;
+    private       ComponentModel         model;
+
+    @Before
+    public void createUsers() throws SQLException {
+        keepAlive = DriverManager.getConnection(URL, "sa", "");
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("create table users (id bigint primary key, username varchar(50), email varchar(50), updated_at timestamp)");
+            statement.execute("insert into users select x, 'user' || x, 'user' || x || '@example.com', timestamp '2026-01-01 00:00:00' from system_range(1, 1000)");
+            statement.execute("update users set updated_at = timestamp '2026-06-01 00:00:00' where mod(id, 100) = 0");
+        }
+        dataSourceProvider = new DataSourceProvider();
+        dataSourceProvider.configure(URL, "org.h2.Driver", "SELECT 1", "sa", "", "test", new PoolConfiguration(4, 1, 30000L, 1800000L, 0L));
+        QueryConfigurations queryConfigurations = new QueryConfigurations(
+                "select count(*) from users",
+                null,
+                USER,
+                USER + " where id = cast(? as bigint)",
+                USER + " where username = ?",
+                USER + " where email = ?",
+                USER + " where upper(username) like (?)",
+                null,
+                "select hash_pwd from users where username = ?",
+                null,
+                USER + " where updated_at > ?",
+                null,
+                "hash_pwd",
+                "SHA-256",
+                RDBMS.POSTGRESQL,
+                false,
+                false,
+                500L,
+                false,
+                false,
+                0,
+                0,
+                null,
+                false
+        );
+        repository = new UserRepository(dataSourceProvider, queryConfigurations, new UserLookupCache(0L, 30L, 5L), new UserCountCache(30L),
+                                        new QueryExecutor("test", 0), null, new ProviderMetrics("test", new SimpleMeterRegistry()), new QueryLogger(1000L, 100));
+
+        UserFederatedStorageProvider federatedStorage = stub(UserFederatedStorageProvider.class, (name, args) -> {
+            if ("setAttribute".equals(name)) {
+                synced.add((String) args[1]);
+            }
+            return null;
+        });
+        RealmModel                 realm        = stub(RealmModel.class, (name, args) -> "getId".equals(name) ? "realm" : null);
+        RealmProvider              realms       = stub(RealmProvider.class, (name, args) -> "getRealm".equals(name) ? realm : null);
+        KeycloakTransactionManager transactions = stub(KeycloakTransactionManager.class, (name, args) -> null);
+        KeycloakSession session = stub(KeycloakSession.class, (name, args) -> {
+            if ("getProvider".equals(name) && args[0] == UserFederatedStorageProvider.class) {
+                return federatedStorage;
+            }
+            if ("realms".equals(name)) {
+                return realms;
+            }
+            return "getTransactionManager".equals(name) ? transactions : null;
+        });
+        sessionFactory = stub(KeycloakSessionFactory.class, (name, args) -> "create".equals(name) ? session : null);
+        model = new ComponentModel();
+        model.setId("component");
+        model.setName("test");
+    }
+
+    @After
+    public void dropUsers() throws SQLException {
+        dataSourceProvider.close();
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("drop table users");
+        }
+        keepAlive.close();
+    }
+
+    @Test
+    public void syncMergesEveryUser() {
+        SynchronizationResult result = new UserSynchronizer(repository, false, new AttributeSyncStats(), 4, 64).sync(sessionFactory, "realm", model);
+
+        assertEquals(1000, result.getUpdated());
+        assertEquals(0, result.getFailed());
+        assertEquals(1000, synced.size());
+    }
+
+    @Test
+    public void changedSinceSyncMergesOnlyChangedUsers() {
+        Timestamp             since  = Timestamp.valueOf("2026-03-01 00:00:00");
+        SynchronizationResult result = new UserSynchronizer(repository, false, new AttributeSyncStats(), 4, 64).syncChangedSince(since, sessionFactory, "realm", model);
+
+        assertEquals(10, result.getUpdated());
+        assertEquals(10, synced.size());
+        for (int id = 100; id <= 1000; id += 100) {
+            assertTrue(synced.contains("f:component:" + id));
+        }
+    }
+
+    @Test
+    public void syncFailsWhenTheUsersCannotBeRead() throws SQLException {
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("alter table users rename to users_moved");
+        }
+        try {
+            new UserSynchronizer(repository, false, new AttributeSyncStats(), 4, 64).sync(sessionFactory, "realm", model);
+            fail("the list all query cannot be executed");
+        } catch (DBUserStorageException expected) {
+            assertEquals(0, synced.size());
+        } finally {
+            try (Statement statement = keepAlive.createStatement()) {
+                statement.execute("alter table users_moved rename to users");
+            }
+        }
+    }
+
+    private interface Answer {
+        Object answer(String method, Object[] args);
+    }
+
+    private static <T> T stub(Class<T> type, Answer answer) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if ("hashCode".equals(method.getName())) {
+                return System.identityHashCode(proxy);
+            }
+            if ("equals".equals(method.getName())) {
+                return proxy == args[0];
+            }
+            Object result = answer.answer(method.getName(), args);
+            return result == null && method.getReturnType() == boolean.class ? Boolean.FALSE : result;
+        }));
+    }
+}
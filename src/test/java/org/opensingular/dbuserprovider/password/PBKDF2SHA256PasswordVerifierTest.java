@@ -0,0 +1,84 @@
+package org.opensingular.dbuserprovider.password;
+
+import org.junit.Test;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PBKDF2SHA256PasswordVerifierTest {
+
+    private final PBKDF2SHA256PasswordVerifier verifier = new PBKDF2SHA256PasswordVerifier();
+
+    @Test
+    public void matchesPublishedVectors() {
+        // PBKDF2-HMAC-SHA256, P = "password", S = "salt", first 32 bytes of the derived key
+        assertTrue(verifier.verify("password", stored(1, "salt", "120fb6cffcf8b32c43e7225256c4f837a86548c92ccc35480805987cb70be17b")));
+        assertTrue(verifier.verify("password", stored(2, "salt", "ae4d0c95af6b46d32d0adff928f06dd02a303f8ef3c251dfd6e2d85a95474c43")));
+        assertTrue(verifier.verify("password", stored(4096, "salt", "c5e478d59288c841aa530db6845c4c8d962893a001ce4e11a4963873aa98134a")));
+        assertFalse(verifier.verify("Password", stored(1, "salt", "120fb6cffcf8b32c43e7225256c4f837a86548c92ccc35480805987cb70be17b")));
+    }
+
+    @Test
+    public void agreesWithSecretKeyFactory() throws GeneralSecurityException {
+        String[] passwords  = {"a", "password", "correct horse battery staple", "pässwörd", "密码", "🔑"};
+        int[]    iterations = {1, 2, 27500};
+        for (String password : passwords) {
+            for (int iteration : iterations) {
+                String hash = reference(password, "9kQeFM2m1LHCtyVw", iteration);
+                assertTrue(hash, verifier.verify(password, hash));
+                assertFalse(hash, verifier.verify(password + "x", hash));
+            }
+        }
+    }
+
+    @Test
+    public void emptyPasswordFallsBackToSecretKeyFactory() throws GeneralSecurityException {
+        String hash = reference("", "9kQeFM2m1LHCtyVw", 27500);
+        assertTrue(verifier.verify("", hash));
+        assertFalse(verifier.verify(" ", hash));
+        assertFalse(verifier.verify("", reference("x", "9kQeFM2m1LHCtyVw", 27500)));
+    }
+
+    @Test
+    public void rejectsMalformedHashes() throws GeneralSecurityException {
+        String   key       = reference("password", "salt", 1).split("\\$")[3];
+        String[] malformed = {
+                "",
+                "$",
+                "$1$salt",
+                "1$salt$" + key,
+                "$x$salt$" + key,
+                "$$salt$" + key,
+                "$0$salt$" + key,
+                "$-1$salt$" + key,
+                "$99999999999$salt$" + key,
+                "$1$salt$not base64!",
+                "$1$salt$" + key.substring(0, key.length() - 4),
+                "$1$salt$" + key + "AAAA",
+                "$1$salt$",
+        };
+        for (String hash : malformed) {
+            assertFalse(hash, verifier.verify("password", hash));
+        }
+    }
+
+    private static String reference(String password, String salt, int iterations) throws GeneralSecurityException {
+        SecretKeyFactory skf  = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        PBEKeySpec       spec = new PBEKeySpec(password.toCharArray(), salt.getBytes(StandardCharsets.UTF_8), iterations, 256);
+        return "$" + iterations + "$" + salt + "$" + Base64.getEncoder().encodeToString(skf.generateSecret(spec).getEncoded());
+    }
+
+    private static String stored(int iterations, String salt, String hexKey) {
+        byte[] key = new byte[hexKey.length() / 2];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) Integer.parseInt(hexKey.substring(i * 2, i * 2 + 2), 16);
+        }
+        return "$" + iterations + "$" + salt + "$" + Base64.getEncoder().encodeToString(key);
+    }
+}
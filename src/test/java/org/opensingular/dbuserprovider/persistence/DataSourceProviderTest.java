@@ -0,0 +1,100 @@
+package org.opensingular.dbuserprovider.persistence;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DataSourceProviderTest {
+
+    private static final String[]          URLS    = {"jdbc:h2:mem:pool-swap-a;DB_CLOSE_DELAY=-1", "jdbc:h2:mem:pool-swap-b;DB_CLOSE_DELAY=-1"};
+    private static final PoolConfiguration POOL    = new PoolConfiguration(4, 1, 5000L, 1800000L, 0L);
+    private static final int               CLIENTS = 8;
+    private static final int               SWAPS   = 10;
+
+    private DataSourceProvider     dataSourceProvider;
+    private List<HikariDataSource> pools;
+
+    @Before
+    public void configure() {
+        dataSourceProvider = new DataSourceProvider();
+        pools = new ArrayList<>();
+        swapTo(0);
+    }
+
+    @After
+    public void close() {
+        dataSourceProvider.close();
+    }
+
+    @Test
+    public void noQueryFailsWhilePoolsAreSwapped() throws Exception {
+        AtomicBoolean   running   = new AtomicBoolean(true);
+        AtomicInteger   succeeded = new AtomicInteger();
+        List<Exception> failures  = new ArrayList<>();
+        ExecutorService clients   = Executors.newFixedThreadPool(CLIENTS);
+        for (int i = 0; i < CLIENTS; i++) {
+            clients.execute(() -> {
+                while (running.get()) {
+                    try (Connection c = dataSourceProvider.getConnection();
+                         Statement statement = c.createStatement();
+                         ResultSet rs = statement.executeQuery("select 1")) {
+                        rs.next();
+                        // hold the connection for a while, so swaps happen while connections are in use
+                        Thread.sleep(1);
+                        succeeded.incrementAndGet();
+                    } catch (Exception e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+        }
+        for (int swap = 1; swap <= SWAPS; swap++) {
+            Thread.sleep(50);
+            swapTo(swap % 2);
+        }
+        Thread.sleep(50);
+        running.set(false);
+        clients.shutdown();
+        assertTrue(clients.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(failures.toString(), 0, failures.size());
+        assertTrue(succeeded.get() > 0);
+    }
+
+    @Test
+    public void closeClosesEveryPoolRightAway() throws SQLException {
+        try (Connection inUse = dataSourceProvider.getConnection()) {
+            // the first pool cannot drain while its connection is in use
+            swapTo(1);
+            swapTo(0);
+        }
+        dataSourceProvider.close();
+
+        for (HikariDataSource pool : pools) {
+            assertTrue(pool.getPoolName(), pool.isClosed());
+        }
+    }
+
+    private void swapTo(int url) {
+        dataSourceProvider.configure(URLS[url], "org.h2.Driver", "SELECT 1", "sa", "", "swap-test", POOL);
+        pools.add((HikariDataSource) dataSourceProvider.getDataSource().orElseThrow(IllegalStateException::new));
+    }
+}
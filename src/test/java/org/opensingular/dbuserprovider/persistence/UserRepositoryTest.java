@@ -0,0 +1,157 @@
+package org.opensingular.dbuserprovider.persistence;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensingular.dbuserprovider.DBUserStorageException;
+import org.opensingular.dbuserprovider.metrics.ProviderMetrics;
+import org.opensingular.dbuserprovider.metrics.QueryKind;
+import org.opensingular.dbuserprovider.model.QueryConfigurations;
+import org.opensingular.dbuserprovider.util.PagingUtil.Pageable;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UserRepositoryTest {
+
+    // unquoted aliases are upper case in H2's default mode, as they are on Oracle
+    private static final String URL  = "jdbc:h2:mem:user-repository-test;DB_CLOSE_DELAY=-1";
+    private static final String USER = "select id as \"id\", username as \"username\", email as \"email\"";
+
+    private Connection         keepAlive;
+    private DataSourceProvider dataSourceProvider;
+
+    @Before
+    public void createUsers() throws SQLException {
+        keepAlive = DriverManager.getConnection(URL, "sa", "");
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("create table users (id bigint primary key, username varchar(50), email varchar(50), hash_pwd varchar(100))");
+            statement.execute("insert into users values (1, 'alice', 'alice@example.com', 'alice-hash')");
+        }
+        dataSourceProvider = new DataSourceProvider();
+        dataSourceProvider.configure(URL, "org.h2.Driver", "SELECT 1", "sa", "", "test", new PoolConfiguration(2, 1, 30000L, 1800000L, 0L));
+    }
+
+    @After
+    public void dropUsers() throws SQLException {
+        dataSourceProvider.close();
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("drop table users");
+        }
+        keepAlive.close();
+    }
+
+    @Test
+    public void combinedQueryMatchesTheHashColumnIgnoringCase() {
+        UserRepository      repository = repository(USER + ", hash_pwd from users where username = ?");
+        Map<String, String> hashes     = new HashMap<>();
+
+        Map<String, String> user = repository.findUserByUsername("alice", hashes::put).orElse(null);
+
+        assertEquals("alice-hash", hashes.get("1"));
+        assertEquals("alice", user.get("username"));
+        assertEquals(3, user.size());
+        assertFalse(user.containsKey("HASH_PWD"));
+        assertFalse(user.containsKey("hash_pwd"));
+    }
+
+    @Test
+    public void combinedQueryWithoutTheHashColumnFails() {
+        UserRepository repository = repository(USER + " from users where username = ?");
+        try {
+            repository.findUserByUsername("alice", (id, hash) -> fail("no hash to hand over"));
+            fail("the hash column is missing");
+        } catch (DBUserStorageException expected) {
+            // the user is not cached either, the next lookup fails the same way
+        }
+        try {
+            repository.findUserByUsername("alice", (id, hash) -> fail("no hash to hand over"));
+            fail("the hash column is missing");
+        } catch (DBUserStorageException expected) {
+        }
+    }
+
+    @Test
+    public void overlappingPagesSeekFromTheRowBeforeTheFirstResult() throws SQLException {
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("insert into users select x, 'user' || x, 'user' || x || '@example.com', null from system_range(2, 30)");
+        }
+        List<String>   queries    = new ArrayList<>();
+        UserRepository repository = repository(null, "\"id\"", new QueryLogger(1000L, 100) {
+            @Override
+            void log(QueryKind kind, String query, Pageable pageable, Object[] params, long nanos, int rows) {
+                queries.add(query);
+            }
+        });
+
+        // like the admin console: one row more than the page size, the next page starts at the last row of the previous one
+        assertEquals(ids(1, 11), ids(repository.findUsers(null, new Pageable(0, 11))));
+        assertEquals(ids(11, 21), ids(repository.findUsers(null, new Pageable(10, 11))));
+        assertEquals(ids(21, 30), ids(repository.findUsers(null, new Pageable(20, 11))));
+
+        assertEquals(3, queries.size());
+        assertFalse(queries.get(0).contains(" > ?"));
+        assertTrue(queries.get(1).contains(" > ?"));
+        assertTrue(queries.get(2).contains(" > ?"));
+    }
+
+    private static List<String> ids(int from, int to) {
+        List<String> ids = new ArrayList<>();
+        for (int id = from; id <= to; id++) {
+            ids.add(String.valueOf(id));
+        }
+        return ids;
+    }
+
+    private static List<String> ids(List<Map<String, String>> users) {
+        return users.stream().map(user -> user.get("id")).collect(Collectors.toList());
+    }
+
+    private UserRepository repository(String findUserWithPasswordHash) {
+        return repository(findUserWithPasswordHash, null, new QueryLogger(1000L, 100));
+    }
+
+    private UserRepository repository(String findUserWithPasswordHash, String keysetColumn, QueryLogger queryLogger) {
+        QueryConfigurations queryConfigurations = new QueryConfigurations(
+                "select count(*) from users",
+                null,
+                USER + " from users",
+                USER + " from users where id = cast(? as bigint)",
+                USER + " from users where username = ?",
+                USER + " from users where email = ?",
+                USER + " from users where upper(username) like (?)",
+                null,
+                "select hash_pwd from users where username = ?",
+                findUserWithPasswordHash,
+                null,
+                null,
+                "hash_pwd",
+                "SHA-256",
+                RDBMS.POSTGRESQL,
+                false,
+                false,
+                500L,
+                false,
+                false,
+                0,
+                0,
+                keysetColumn,
+                false
+        );
+        return new UserRepository(dataSourceProvider, queryConfigurations, new UserLookupCache(1000L, 30L, 5L), new UserCountCache(30L),
+                                  new QueryExecutor("test", 0), null, new ProviderMetrics("test", new SimpleMeterRegistry()), queryLogger);
+    }
+}
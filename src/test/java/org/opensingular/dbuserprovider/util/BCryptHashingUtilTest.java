@@ -0,0 +1,105 @@
+package org.opensingular.dbuserprovider.util;
+
+import org.junit.Test;
+import org.mindrot.jbcrypt.BCrypt;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BCryptHashingUtilTest {
+
+    /**
+     * Test vectors of the OpenBSD and crypt_blowfish test suites: hash, password.
+     */
+    private static final String[][] PUBLISHED = {
+            {"$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW", "U*U"},
+            {"$2a$05$CCCCCCCCCCCCCCCCCCCCC.VGOzA784oUp/Z0DY336zx7pLYAy0lwK", "U*U*"},
+            {"$2a$05$XXXXXXXXXXXXXXXXXXXXXOAcXxm9kjPGEMsLznoKqmqw7tc8WCx4a", "U*U*U"},
+            {"$2a$05$abcdefghijklmnopqrstuu5s2v8.iXieOjg/.AySBTTZIIVFJeBui", "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789chars after 72 are ignored"},
+            {"$2a$05$CCCCCCCCCCCCCCCCCCCCC.7uG0VCzI2bS7j6ymqJi9CdcdxiRTWNy", ""},
+    };
+
+    // "ё" is 0xd1 0x91 in UTF-8, a password the $2x$ sign extension bug hashes differently
+    private static final String CYRILLIC_YO = "ё";
+    private static final String X_YO        = "$2x$05$6bNw2HLQYeqHYyBfLMsv/OiwqTymGIGzFsA4hOTWebfehXHNprcAS";
+    private static final String A_YO        = "$2a$05$6bNw2HLQYeqHYyBfLMsv/OUcZd0LKP39b87nBw3.S2tVZSqiQX6eu";
+
+    @Test
+    public void matchesPublished2aVectors() {
+        for (String[] vector : PUBLISHED) {
+            assertTrue(vector[0], BCryptHashingUtil.checkPassword(vector[1], vector[0]));
+            assertFalse(vector[0], BCryptHashingUtil.checkPassword("!" + vector[1], vector[0]));
+        }
+    }
+
+    @Test
+    public void treats2bAnd2yAs2a() {
+        for (String[] vector : PUBLISHED) {
+            assertTrue(BCryptHashingUtil.checkPassword(vector[1], "$2b$" + vector[0].substring(4)));
+            assertTrue(BCryptHashingUtil.checkPassword(vector[1], "$2y$" + vector[0].substring(4)));
+        }
+        assertTrue(BCryptHashingUtil.checkPassword(CYRILLIC_YO, "$2b$" + A_YO.substring(4)));
+        assertTrue(BCryptHashingUtil.checkPassword(CYRILLIC_YO, "$2y$" + A_YO.substring(4)));
+    }
+
+    @Test
+    public void reproduces2xSignExtensionForNonAsciiPasswords() {
+        assertTrue(BCryptHashingUtil.checkPassword(CYRILLIC_YO, X_YO));
+        assertTrue(BCryptHashingUtil.checkPassword(CYRILLIC_YO, A_YO));
+        // same salt, different hash: only the $2x$ computation matches each
+        assertFalse(BCryptHashingUtil.checkPassword(CYRILLIC_YO, "$2a$" + X_YO.substring(4)));
+        assertFalse(BCryptHashingUtil.checkPassword(CYRILLIC_YO, "$2x$" + A_YO.substring(4)));
+        // ASCII passwords are not affected by the bug
+        for (String[] vector : PUBLISHED) {
+            assertTrue(BCryptHashingUtil.checkPassword(vector[1], "$2x$" + vector[0].substring(4)));
+        }
+    }
+
+    @Test
+    public void agreesWithJBCrypt() {
+        String[] passwords = {"", "a", "password", "pässwörd", "密码", "🔑 key", "with space and $ign$"};
+        for (String password : passwords) {
+            String hash = BCrypt.hashpw(password, BCrypt.gensalt(4));
+            assertTrue(hash, BCryptHashingUtil.checkPassword(password, hash));
+            assertFalse(hash, BCryptHashingUtil.checkPassword(password + "x", hash));
+        }
+    }
+
+    @Test
+    public void usesTheFirst72BytesOnly() {
+        String seventyTwo = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+        String hash       = BCrypt.hashpw(seventyTwo, BCrypt.gensalt(4));
+        assertTrue(BCryptHashingUtil.checkPassword(seventyTwo + "ignored", hash));
+        assertFalse(BCryptHashingUtil.checkPassword(seventyTwo.substring(0, 71), hash));
+
+        // bytes, not characters: only the first byte (0xc3) of the 72nd character is used
+        String seventyOne = seventyTwo.substring(0, 71);
+        String accented   = BCrypt.hashpw(seventyOne + "é", BCrypt.gensalt(4));
+        assertTrue(BCryptHashingUtil.checkPassword(seventyOne + "è", accented));
+        assertFalse(BCryptHashingUtil.checkPassword(seventyOne + "e", accented));
+    }
+
+    @Test
+    public void rejectsMalformedHashes() {
+        String   valid     = PUBLISHED[0][0];
+        String   password  = PUBLISHED[0][1];
+        String[] malformed = {
+                null,
+                "",
+                valid.substring(0, 59),
+                valid + ".",
+                "$2c$" + valid.substring(4),
+                "$3a$" + valid.substring(4),
+                "2a$05$" + valid.substring(7) + "C",
+                "$2a$03$" + valid.substring(7),
+                "$2a$32$" + valid.substring(7),
+                "$2a$0a$" + valid.substring(7),
+                "$2a$05-" + valid.substring(7),
+                valid.substring(0, 7) + "*" + valid.substring(8),
+                valid.substring(0, 59) + "é",
+        };
+        for (String hash : malformed) {
+            assertFalse(String.valueOf(hash), BCryptHashingUtil.checkPassword(password, hash));
+        }
+    }
+}
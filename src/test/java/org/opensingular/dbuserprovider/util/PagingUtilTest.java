@@ -0,0 +1,65 @@
+package org.opensingular.dbuserprovider.util;
+
+import org.junit.Test;
+import org.opensingular.dbuserprovider.persistence.RDBMS;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PagingUtilTest {
+
+    private static final String PAGE = " offset ? rows fetch next ? rows only";
+
+    @Test
+    public void keepsTopLevelOrderByWithFunctionCalls() {
+        assertPagedAsIs("select id, username from users order by upper(username)");
+        assertPagedAsIs("select id, username from users order by coalesce(last_name, first_name), id");
+        assertPagedAsIs("select id, username from users order by lower(email) desc");
+        assertPagedAsIs("select id, username from users ORDER BY upper(trim(username))");
+    }
+
+    @Test
+    public void addsOrderByWhenItIsOnlyNested() {
+        assertOrderByAdded("select id, username from (select id, username from users order by id) u");
+        assertOrderByAdded("select id, row_number() over (order by upper(username)) as n from users");
+        assertOrderByAdded("select id, username from users where id in (select id from users order by id offset 0 rows)");
+        assertOrderByAdded("select id, username from users");
+    }
+
+    @Test
+    public void ignoresOrderByInStringLiterals() {
+        assertOrderByAdded("select id, username from users where username <> 'order by'");
+        assertOrderByAdded("select id, username from users where username <> ')' and email <> 'order by'");
+        assertPagedAsIs("select id, username from users where username <> '(' order by upper(username)");
+    }
+
+    @Test
+    public void stripsTrailingSemicolon() {
+        assertEquals("select id from users order by upper(username)" + PAGE,
+                     PagingUtil.pagedQuery("select id from users order by upper(username) ;", RDBMS.SQL_SERVER));
+    }
+
+    @Test
+    public void limitOffsetIsAppendedAsIs() {
+        String query = "select id from users";
+        assertEquals(query + " limit ? offset ?", PagingUtil.pagedQuery(query, RDBMS.POSTGRESQL));
+        assertEquals(query + PAGE, PagingUtil.pagedQuery(query, RDBMS.ORACLE));
+    }
+
+    @Test
+    public void pageParametersFollowTheQueryParameters() {
+        PagingUtil.Pageable pageable = new PagingUtil.Pageable(20, 10);
+        String[]            search   = {"%A%", "%A%"};
+        assertArrayEquals(new Object[]{"%A%", "%A%", 10, 20}, PagingUtil.withPageParameters(search, pageable, RDBMS.POSTGRESQL));
+        assertArrayEquals(new Object[]{"%A%", "%A%", 20, 10}, PagingUtil.withPageParameters(search, pageable, RDBMS.SQL_SERVER));
+        assertArrayEquals(new Object[]{20, 10}, PagingUtil.withPageParameters(null, pageable, RDBMS.ORACLE));
+    }
+
+    private static void assertPagedAsIs(String query) {
+        assertEquals(query + PAGE, PagingUtil.pagedQuery(query, RDBMS.SQL_SERVER));
+    }
+
+    private static void assertOrderByAdded(String query) {
+        assertEquals(query + " order by (select null)" + PAGE, PagingUtil.pagedQuery(query, RDBMS.SQL_SERVER));
+    }
+}